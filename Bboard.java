@@ -1,14 +1,42 @@
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 public class Bboard{
     private static void usageAndExit(){
-        System.out.println("Usage: java Bboard <port> <boardW> <boardH> <noteW> <noteH> <colors...>");
+        System.out.println("Usage: java Bboard [options] <port> <boardW> <boardH> <noteW> <noteH> <colors...>");
+        System.out.println("Options:");
+        System.out.println("  --engine=thread|virtual|nio  platform thread per client (default), virtual thread");
+        System.out.println("                               per client (Java 21+) or selector event loops");
+        System.out.println("  --io-threads=<n>             event loop threads for the nio engine (default: cores)");
+        System.out.println("  --max-connections=<n>        reject clients with ERROR BUSY beyond n (default: no limit)");
+        System.out.println("  --store=objects|columns      one object per note (default) or parallel arrays and");
+        System.out.println("                               a shared message arena, for boards with millions of notes");
+        System.out.println("  --tiles=<n>                  cut the board into n horizontal bands, each with its own");
+        System.out.println("                               lock, so writes to different bands run in parallel");
+        System.out.println("                               (default: cores)");
+        System.out.println("  --data-dir=<dir>             keep a write-ahead log and snapshots there, restore on start");
+        System.out.println("                               (default: board lives in memory only)");
+        System.out.println("  --fsync=always|interval|os   when logged writes are forced to disk: before each OK,");
+        System.out.println("                               every --fsync-interval ms (default) or never explicitly");
+        System.out.println("  --fsync-interval=<ms>        force interval for --fsync=interval (default: 10)");
+        System.out.println("  --snapshot-interval=<s>      write a snapshot of the board to the data dir every s");
+        System.out.println("                               seconds so restarts replay less log (default: 300, 0: off)");
+        System.out.println("  --stats-file=<path>          append the STATS line to this file every --stats-interval");
+        System.out.println("  --stats-interval=<s>         seconds between lines in the stats file (default: 60)");
         System.out.println("Example: java Bboard 4554 200 100 20 10 red green white yellow");
+        System.out.println("Example: java Bboard --engine=nio 4554 200 100 20 10 red green white yellow");
         System.exit(1);
     }
 
@@ -28,16 +56,96 @@ public class Bboard{
     }
 
     public static void main(String[] args){
-        if(args.length < 6) usageAndExit();
+        String engine = "thread";
+        int ioThreads = Runtime.getRuntime().availableProcessors();
+        int maxConnections = 0;
+        boolean columnar = false;
+        int tiles = Runtime.getRuntime().availableProcessors();
+        String dataDir = null;
+        WriteAheadLog.FsyncPolicy fsync = WriteAheadLog.FsyncPolicy.INTERVAL;
+        int fsyncInterval = 10;
+        int snapshotInterval = 300;
+        String statsFile = null;
+        int statsInterval = 60;
 
-        int port = parsePositiveInt(args[0], "port");
-        int boardW = parsePositiveInt(args[1], "board_width");
-        int boardH = parsePositiveInt(args[2], "board_height");
-        int noteW  = parsePositiveInt(args[3], "note_width");
-        int noteH  = parsePositiveInt(args[4], "note_height");
+        // leading --name=value options, then the positional arguments
+        int a = 0;
+        for(; a < args.length && args[a].startsWith("--"); a++){
+            String opt = args[a];
+            int eq = opt.indexOf('=');
+            String name = eq < 0 ? opt : opt.substring(0, eq);
+            String value = eq < 0 ? "" : opt.substring(eq + 1);
+
+            if(name.equals("--engine")){
+                engine = value.toLowerCase();
+                if(!engine.equals("thread") && !engine.equals("virtual") && !engine.equals("nio")){
+                    System.out.println("ERROR: engine must be thread, virtual or nio");
+                    usageAndExit();
+                }
+            }
+            else if(name.equals("--io-threads")){
+                ioThreads = parsePositiveInt(value, "io-threads");
+            }
+            else if(name.equals("--max-connections")){
+                maxConnections = parsePositiveInt(value, "max-connections");
+            }
+            else if(name.equals("--store")){
+                if(!value.equalsIgnoreCase("objects") && !value.equalsIgnoreCase("columns")){
+                    System.out.println("ERROR: store must be objects or columns");
+                    usageAndExit();
+                }
+                columnar = value.equalsIgnoreCase("columns");
+            }
+            else if(name.equals("--tiles")){
+                tiles = parsePositiveInt(value, "tiles");
+            }
+            else if(name.equals("--data-dir")){
+                if(value.isEmpty()){
+                    System.out.println("ERROR: data-dir must not be empty");
+                    usageAndExit();
+                }
+                dataDir = value;
+            }
+            else if(name.equals("--fsync")){
+                try{
+                    fsync = WriteAheadLog.FsyncPolicy.valueOf(value.toUpperCase());
+                }catch(IllegalArgumentException e){
+                    System.out.println("ERROR: fsync must be always, interval or os");
+                    usageAndExit();
+                }
+            }
+            else if(name.equals("--fsync-interval")){
+                fsyncInterval = parsePositiveInt(value, "fsync-interval");
+            }
+            else if(name.equals("--snapshot-interval")){
+                snapshotInterval = value.equals("0") ? 0 : parsePositiveInt(value, "snapshot-interval");
+            }
+            else if(name.equals("--stats-file")){
+                if(value.isEmpty()){
+                    System.out.println("ERROR: stats-file must not be empty");
+                    usageAndExit();
+                }
+                statsFile = value;
+            }
+            else if(name.equals("--stats-interval")){
+                statsInterval = parsePositiveInt(value, "stats-interval");
+            }
+            else{
+                System.out.println("ERROR: Unknown option " + name);
+                usageAndExit();
+            }
+        }
+
+        if(args.length - a < 6) usageAndExit();
+
+        int port = parsePositiveInt(args[a], "port");
+        int boardW = parsePositiveInt(args[a + 1], "board_width");
+        int boardH = parsePositiveInt(args[a + 2], "board_height");
+        int noteW  = parsePositiveInt(args[a + 3], "note_width");
+        int noteH  = parsePositiveInt(args[a + 4], "note_height");
 
         Set<String> colors = new HashSet<>();
-        for(int i=5;i<args.length;i++){
+        for(int i=a + 5;i<args.length;i++){
             String c = args[i].trim();
             if(!c.isEmpty()) colors.add(c);
         }
@@ -46,25 +154,108 @@ public class Bboard{
             usageAndExit();
         }
 
-        Board board = new Board(boardW, boardH, noteW, noteH, colors);
+        Board board = new Board(boardW, boardH, noteW, noteH, colors, columnar, tiles);
 
         System.out.println("Bboard server starting...");
         System.out.println("Port: " + port);
         System.out.println("Board: " + boardW + " x " + boardH);
         System.out.println("Note: " + noteW + " x " + noteH);
         System.out.println("Colors: " + Arrays.toString(colors.toArray()));
+        System.out.println("Store: " + (columnar ? "columns" : "objects"));
+        System.out.println("Tiles: " + board.getTileCount());
+
+        if(dataDir != null) openDataDir(board, Paths.get(dataDir), fsync, fsyncInterval, snapshotInterval);
+
+        ServerStats stats = new ServerStats(RequestProcessor.statNames());
+        if(statsFile != null){
+            stats.dumpEvery(Paths.get(statsFile), statsInterval, board);
+            System.out.println("Stats file: " + statsFile + " (every " + statsInterval + " s)");
+        }
+
+        // connection slots, released by the handler when its client goes away
+        Semaphore admission = maxConnections > 0 ? new Semaphore(maxConnections) : null;
+        if(admission != null) System.out.println("Max connections: " + maxConnections);
+
+        if(engine.equals("nio")){
+            try{
+                new NioServer(port, board, stats, ioThreads, admission).run();
+            }catch(IOException e){
+                System.out.println("ERROR: Could not start server on port " + port);
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        Executor executor = engine.equals("virtual") ? virtualThreadExecutor() : r -> new Thread(r).start();
 
         try(ServerSocket serverSocket = new ServerSocket(port)){
-            System.out.println("Server listening on port " + port);
+            System.out.println("Server listening on port " + port + " (" + engine + " threads)");
 
             while(true){
                 Socket clientSocket = serverSocket.accept();
-                ClientHandler handler = new ClientHandler(clientSocket, board);
-                handler.start();
+                if(admission != null && !admission.tryAcquire()){
+                    stats.error(ErrorCode.BUSY);
+                    rejectBusy(clientSocket);
+                    continue;
+                }
+                try{
+                    executor.execute(new ClientHandler(clientSocket, board, stats, admission));
+                }catch(RuntimeException | OutOfMemoryError e){
+                    // no handler will run to give the slot back or close the socket, so do it here;
+                    // out of memory is what a thread that can't be started comes up as
+                    if(admission != null) admission.release();
+                    closeQuietly(clientSocket);
+                    System.out.println("ERROR: Could not start a handler for a client: " + e);
+                }
             }
         }catch(IOException e){
             System.out.println("ERROR: Could not start server on port " + port);
             e.printStackTrace();
         }
     }
+
+    // restores what an earlier run left behind, then logs every mutation from here on
+    private static void openDataDir(Board board, Path dir, WriteAheadLog.FsyncPolicy fsync, int fsyncInterval, int snapshotInterval){
+        try{
+            DataDirectory data = DataDirectory.open(dir, board, fsync, fsyncInterval);
+            System.out.println("Data directory: " + dir + " (fsync " + fsync.name().toLowerCase()
+                    + ", snapshots " + (snapshotInterval > 0 ? "every " + snapshotInterval + " s" : "off") + ")");
+            if(snapshotInterval > 0) data.snapshotEvery(snapshotInterval);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try{
+                    data.close();
+                }catch(IOException ignored){}
+            }));
+        }catch(IOException | IllegalStateException | IllegalArgumentException e){
+            System.out.println("ERROR: Could not open the data directory " + dir + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // looked up reflectively so the server still builds and runs on Java 17 with the other engines
+    private static Executor virtualThreadExecutor(){
+        try{
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) m.invoke(null);
+        }catch(ReflectiveOperationException e){
+            System.out.println("ERROR: virtual threads require Java 21 or newer");
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Socket socket){
+        try{
+            socket.close();
+        }catch(IOException ignored){}
+    }
+
+    private static void rejectBusy(Socket socket){
+        try(socket){
+            OutputStream out = socket.getOutputStream();
+            out.write(Protocol.encodeLine(Protocol.error(ErrorCode.BUSY, "Server is at max connections")));
+            out.flush();
+        }catch(IOException ignored){}
+    }
 }
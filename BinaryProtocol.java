@@ -0,0 +1,163 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Compact framing a client can switch to by sending PROTOCOL BINARY after DATA INIT.
+// Once the server has answered OK (still as a text line) both directions use frames:
+//   frame = varint payload length, payload
+// client -> server: the payload is one request in UTF-8, same syntax as a text line
+// server -> client: the payload starts with a type byte
+//   TEXT  the rest is a response line in UTF-8, exactly as the text protocol would send it
+//   NOTES varint k, then per note: varint x, varint y, varint color id (its position in
+//         the DATA INIT color list), byte pinned, varint n, n bytes of UTF-8 message
+// varints are unsigned LEB128, 7 bits per byte, low bits first.
+public class BinaryProtocol{
+    public static final byte TEXT = 0;
+    public static final byte NOTES = 1;
+
+    // requests are short; anything longer is a broken or hostile client
+    public static final int MAX_REQUEST_FRAME = 1 << 20;
+
+    public static byte[] textFrame(String line){
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        Builder b = new Builder(text.length + 1);
+        b.put(TEXT);
+        b.put(text);
+        return b.frame();
+    }
+
+    // the first k notes of the columns, as captured under the board lock
+    public static byte[] notesFrame(int k, int[] xs, int[] ys, int[] colors, boolean[] pinned, byte[][] messages){
+        Builder b = new Builder(16 + k * 24);
+        b.put(NOTES);
+        b.varint(k);
+        for(int i = 0; i < k; i++){
+            b.varint(xs[i]);
+            b.varint(ys[i]);
+            b.varint(colors[i]);
+            b.put((byte)(pinned[i] ? 1 : 0));
+            b.varint(messages[i].length);
+            b.put(messages[i]);
+        }
+        return b.frame();
+    }
+
+    // client side: one request line as a frame
+    public static void writeRequest(OutputStream out, String request) throws IOException{
+        byte[] text = request.getBytes(StandardCharsets.UTF_8);
+        Builder b = new Builder(text.length);
+        b.put(text);
+        out.write(b.frame());
+        out.flush();
+    }
+
+    // client side: the next frame's payload, or null at end of stream
+    public static byte[] readFrame(InputStream in) throws IOException{
+        int first = in.read();
+        if(first < 0) return null;
+
+        int len = first & 0x7f;
+        for(int shift = 7; (first & 0x80) != 0; shift += 7){
+            first = in.read();
+            if(first < 0) throw new EOFException("Truncated frame length");
+            if(shift > 28) throw new IOException("Frame length too long");
+            len |= (first & 0x7f) << shift;
+        }
+
+        byte[] payload = new byte[len];
+        int off = 0;
+        while(off < len){
+            int n = in.read(payload, off, len - off);
+            if(n < 0) throw new EOFException("Truncated frame");
+            off += n;
+        }
+        return payload;
+    }
+
+    // reads the fields of a payload in order
+    public static class Cursor{
+        private final byte[] buf;
+        private int pos;
+
+        public Cursor(byte[] buf){
+            this.buf = buf;
+        }
+
+        public byte get(){
+            return buf[pos++];
+        }
+
+        public int varint(){
+            int v = 0;
+            for(int shift = 0; ; shift += 7){
+                byte b = buf[pos++];
+                v |= (b & 0x7f) << shift;
+                if((b & 0x80) == 0) return v;
+            }
+        }
+
+        public String utf8(int n){
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+
+        // everything not read yet
+        public String rest(){
+            return utf8(buf.length - pos);
+        }
+    }
+
+    // payload under construction; frame() puts the length prefix in front
+    private static class Builder{
+        private byte[] buf;
+        private int len;
+
+        Builder(int capacity){
+            buf = new byte[Math.max(capacity, 16)];
+        }
+
+        private void ensure(int extra){
+            if(len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(len + extra, buf.length * 2));
+        }
+
+        void put(byte b){
+            ensure(1);
+            buf[len++] = b;
+        }
+
+        void put(byte[] bytes){
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+        }
+
+        void varint(int v){
+            ensure(5);
+            while((v & ~0x7f) != 0){
+                buf[len++] = (byte)((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        byte[] frame(){
+            int prefix = 1;
+            for(int v = len >>> 7; v != 0; v >>>= 7) prefix++;
+
+            byte[] frame = new byte[prefix + len];
+            int p = 0;
+            int v = len;
+            while((v & ~0x7f) != 0){
+                frame[p++] = (byte)((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            frame[p++] = (byte) v;
+            System.arraycopy(buf, 0, frame, p, len);
+            return frame;
+        }
+    }
+}
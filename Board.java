@@ -1,4 +1,12 @@
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 public class Board{
     private final int boardWidth;
@@ -7,171 +15,1193 @@ public class Board{
     private final int noteHeight;
     private final Set<String> validcolors;
 
-    private final List<Note> notes = new ArrayList<>();
+    // colors are fixed at startup, so they get small ids and each its own note list
+    private final String[] colorNames;
+    private final Map<String, Integer> colorIds = new HashMap<>();
 
-    // pins by coordinate "x,y" -> count
-    private final Map<String, Integer> pinCountsAtCoord = new HashMap<>();
+    // The board is cut into horizontal bands at least one note high, and a note belongs
+    // to the band holding its origin. Each band has its own notes, indexes, pins and
+    // lock, so mutations in different bands run in parallel. A point can only be covered
+    // by notes of its own band and the one above, so no single op needs more than two;
+    // whole-board operations take all of them. Locks are always taken top band first.
+    private static final class Tile{
+        // GET / GET PINS share the read lock so polling clients never block each other;
+        // they only copy what they need under the lock and format the response after it
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // every note lives in the store; the lists and indexes below hold its int id
+        final NoteStore store;
+        // ids in posting order
+        final IntList notes = new IntList();
+
+        // spatial index for point lookups (pin, unpin, GET contains=), and for the note at
+        // an exact origin: at most one note may sit at each (x,y)
+        final NoteGrid grid;
+
+        final IntList[] notesByColor;
+
+        // case-folded trigrams of every message, for GET refersTo=. restore() leaves it to a
+        // background thread; until that has caught up, GET scans and POST leaves it alone
+        final TrigramIndex messageIndex;
+        volatile boolean messagesIndexed = true;
+        // while !messagesIndexed, notes below this seq are in messageIndex and the rest are not
+        long indexedBelowSeq;
+
+        // pin count by coordinate, for the pins whose y lies in this band
+        final PinTable pins = new PinTable();
+
+        Tile(NoteStore store, NoteGrid grid, int colors){
+            this.store = store;
+            this.grid = grid;
+            this.notesByColor = new IntList[colors];
+            for(int i = 0; i < colors; i++) notesByColor[i] = new IntList();
+            this.messageIndex = new TrigramIndex(store);
+        }
+
+        void clear(){
+            notes.clear();
+            grid.clear();
+            for(IntList bucket : notesByColor) bucket.clear();
+            messageIndex.clear();
+            messagesIndexed = true;
+            store.clear();
+            pins.clear();
+        }
+    }
+    private final Tile[] tiles;
+    private final int tileHeight;
+    private static final int INDEX_SLICE = 1 << 16;
+
+    // how long lock acquisitions that found their band lock taken waited for it, for STATS
+    private final LatencyHistogram lockWaits = new LatencyHistogram();
+    private final LongAdder lockAcquisitions = new LongAdder();
+
+    // posting order across all bands; a note gets its seq when its POST commits, so that
+    // GET lists notes in the order the log replays them
+    private long nextSeq = 0;
+
+    // version, journal, log and listeners see every mutation in one order: the part of a
+    // mutation that touches them runs in this short commit section, inside its band locks.
+    // A lock rather than a monitor, so a virtual thread waiting here does not pin its carrier
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    // bumped by every mutation; the journal remembers what each version changed
+    private static final int JOURNAL_CAPACITY = 1 << 16;
+    // volatile so the response cache can be validated without taking the lock
+    private volatile long version = 0;
+    private final ChangeJournal journal = new ChangeJournal(JOURNAL_CAPACITY);
+
+    // encoded unfiltered GET / GET PINS responses, as text lines and as binary frames,
+    // each valid while the board is at its version
+    private static final class CachedResponse{
+        final long version;
+        final byte[] bytes;
+
+        CachedResponse(long version, byte[] bytes){
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+    private static final int NOTES_LINE = 0;
+    private static final int PINS_LINE = 1;
+    private static final int NOTES_FRAME = 2;
+    private static final int PINS_FRAME = 3;
+    private final AtomicReferenceArray<CachedResponse> responseCache = new AtomicReferenceArray<>(4);
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    // SUBSCRIBE connections, notified from inside the commit section
+    private final List<BoardListener> listeners = new CopyOnWriteArrayList<>();
+
+    // optional durability: every mutation is appended at its commit point, and callers
+    // wait for the log only after releasing their locks
+    private WriteAheadLog log;
+    // set on threads that must not block on the log, the NIO event loops: a mutation on
+    // one returns without waiting and leaves the record to wait for here, see takeUnlogged()
+    private final ThreadLocal<long[]> unloggedOnThread = new ThreadLocal<>();
 
     public Board(int boardWidth, int boardHeight, int noteWidth, int noteHeight, Set<String> colors){
+        this(boardWidth, boardHeight, noteWidth, noteHeight, colors, false, 1);
+    }
+
+    // columnar keeps notes in parallel arrays (ColumnNoteStore) instead of one object each.
+    // tiles is how many bands to cut the board into, fewer when they would be lower than a note
+    public Board(int boardWidth, int boardHeight, int noteWidth, int noteHeight, Set<String> colors, boolean columnar, int tiles){
         this.boardWidth = boardWidth;
         this.boardHeight = boardHeight;
         this.noteWidth = noteWidth;
         this.noteHeight = noteHeight;
         this.validcolors = new HashSet<>(colors);
+
+        this.colorNames = validcolors.toArray(new String[0]);
+        for(int i = 0; i < colorNames.length; i++){
+            colorIds.put(colorNames[i], i);
+        }
+
+        int wanted = Math.max(1, tiles);
+        this.tileHeight = Math.max(Math.max(1, noteHeight), (int) (((long) boardHeight + wanted - 1) / wanted));
+        int n = (int) Math.max(1, ((long) boardHeight + tileHeight - 1) / tileHeight);
+        this.tiles = new Tile[n];
+        for(int i = 0; i < n; i++){
+            NoteStore store = columnar ? new ColumnNoteStore() : new ObjectNoteStore(colorNames);
+            NoteGrid grid = new NoteGrid(boardWidth, i * tileHeight, tileHeight, noteWidth, noteHeight, NoteGrid.MAX_CELLS / n, store);
+            this.tiles[i] = new Tile(store, grid, colorNames.length);
+        }
+    }
+
+    // attach after replaying the log and before serving clients
+    public void setLog(WriteAheadLog log){
+        this.log = log;
+    }
+
+    private long loggedSequence(){
+        return log == null ? 0 : log.lastSequence();
+    }
+
+    private void awaitLogged(long seq){
+        if(log == null) return;
+        long[] unlogged = unloggedOnThread.get();
+        if(unlogged != null) unlogged[0] = Math.max(unlogged[0], seq);
+        else log.awaitDurable(seq);
+    }
+
+    // from now on mutations on the calling thread do not wait for the log; the caller
+    // collects what they would have waited for with takeUnlogged() and holds back their
+    // acknowledgements until whenLogged() says so
+    public void deferLogWaitsOnThisThread(){
+        unloggedOnThread.set(new long[1]);
+    }
+
+    // the newest record a mutation on this thread skipped waiting for since the last
+    // call, 0 for none
+    public long takeUnlogged(){
+        long[] unlogged = unloggedOnThread.get();
+        if(unlogged == null) return 0;
+        long seq = unlogged[0];
+        unlogged[0] = 0;
+        return seq;
+    }
+
+    // runs action once record seq is as safe as the log promises, maybe on the log's
+    // writer thread; at once when there is no log
+    public void whenLogged(long seq, Runnable action){
+        if(log == null) action.run();
+        else log.whenDurable(seq, action);
     }
 
     public int getBoardWidth(){ return boardWidth; }
     public int getBoardHeight(){ return boardHeight; }
     public int getNoteWidth(){ return noteWidth; }
     public int getNoteHeight(){ return noteHeight; }
+    public int getTileCount(){ return tiles.length; }
 
     public Set<String> getValidColors(){
         return Collections.unmodifiableSet(validcolors);
     }
 
-    private String key(int x, int y){
-        return x + "," + y;
+    // the band holding row y; rows off the board go to the nearest band
+    private int tileOf(int y){
+        return Math.max(0, Math.min(tiles.length - 1, y / tileHeight));
+    }
+
+    // the topmost band with notes that can cover row y
+    private int firstTileCovering(int y){
+        return tileOf((int) Math.max(0L, (long) y - noteHeight + 1));
+    }
+
+    // the bands an op touches: a POST only its origin's, a PIN / UNPIN every band with
+    // notes that can cover the point
+    private int firstTile(BoardOp op){
+        return op.getKind() == BoardOp.Kind.POST ? tileOf(op.getY()) : firstTileCovering(op.getY());
+    }
+
+    private void lockTiles(int lo, int hi){
+        for(int i = lo; i <= hi; i++) acquire(tiles[i].lock, tiles[i].lock.writeLock());
+    }
+
+    private void unlockTiles(int lo, int hi){
+        for(int i = hi; i >= lo; i--) tiles[i].lock.writeLock().unlock();
+    }
+
+    private void readLockTiles(int lo, int hi){
+        for(int i = lo; i <= hi; i++) acquire(tiles[i].lock, tiles[i].lock.readLock());
+    }
+
+    // only a lock that is taken or has others queued for it is timed; the tryLock
+    // cannot overtake a queued writer since there is none then
+    private void acquire(ReentrantReadWriteLock rw, Lock lock){
+        lockAcquisitions.increment();
+        if(!rw.hasQueuedThreads() && lock.tryLock()) return;
+        long t0 = System.nanoTime();
+        lock.lock();
+        lockWaits.record(System.nanoTime() - t0);
+    }
+
+    private void readUnlockTiles(int lo, int hi){
+        for(int i = hi; i >= lo; i--) tiles[i].lock.readLock().unlock();
+    }
+
+    // registers the listener and hands it the current DATA NOTES / DATA PINS lines first,
+    // atomically with respect to mutations, so every later event applies on top of them
+    public void subscribe(BoardListener listener){
+        lockTiles(0, tiles.length - 1);
+        try{
+            listener.onEvent(BoardListener.Kind.SNAPSHOT, getNotesResponse(null, null, null, null));
+            listener.onEvent(BoardListener.Kind.SNAPSHOT, getPinsResponse());
+            listeners.add(listener);
+        }finally{
+            unlockTiles(0, tiles.length - 1);
+        }
+    }
+
+    public void unsubscribe(BoardListener listener){
+        listeners.remove(listener);
+    }
+
+    private void fire(BoardListener.Kind kind, String line){
+        for(BoardListener l : listeners) l.onEvent(kind, line);
+    }
+
+    // EVENT PIN|UNPIN x y k x1 y1 ... listing the notes whose pinned state flipped
+    private String pinEvent(String kind, int x, int y, Hits flipped){
+        StringBuilder sb = new StringBuilder();
+        sb.append("EVENT ").append(kind).append(" ").append(x).append(" ").append(y)
+          .append(" ").append(flipped.size());
+        for(int t = 0; t < flipped.ids.length; t++){
+            NoteStore store = flipped.tiles[t].store;
+            IntList ids = flipped.ids[t];
+            for(int i = 0; i < ids.size(); i++){
+                int id = ids.get(i);
+                sb.append(" ").append(store.x(id)).append(" ").append(store.y(id));
+            }
+        }
+        return sb.toString();
     }
 
-    public synchronized void clear(){
-        notes.clear();
-        pinCountsAtCoord.clear();
+    public void clear(){
+        long logged;
+        lockTiles(0, tiles.length - 1);
+        try{
+            for(Tile t : tiles) t.clear();
+            commitLock.lock();
+            try{
+                version++;
+                journal.reset(version);
+                if(log != null) log.logClear();
+                logged = loggedSequence();
+                if(!listeners.isEmpty()) fire(BoardListener.Kind.CLEAR, "EVENT CLEAR");
+            }finally{
+                commitLock.unlock();
+            }
+        }finally{
+            unlockTiles(0, tiles.length - 1);
+        }
+        awaitLogged(logged);
     }
 
     // simple shake: remove unpinned notes; keep pins map as-is
-    public synchronized void shake(){
-        notes.removeIf(n -> !n.isPinned());
+    public void shake(){
+        long logged;
+        lockTiles(0, tiles.length - 1);
+        try{
+            commitLock.lock();
+            try{
+                version++;
+                for(Tile t : tiles){
+                    NoteStore store = t.store;
+                    IntList removed = new IntList();
+                    t.notes.removeIf(id -> {
+                        if(store.isPinned(id)) return false;
+                        removed.add(id);
+                        t.grid.remove(id);
+                        journal.append(version, ChangeJournal.NOTE, store.x(id), store.y(id));
+                        return true;
+                    });
+                    for(IntList bucket : t.notesByColor) bucket.removeIf(id -> !store.isPinned(id));
+                    t.messageIndex.removeAll(removed);
+                    for(int i = 0; i < removed.size(); i++) store.remove(removed.get(i));
+                }
+                if(log != null) log.logShake();
+                logged = loggedSequence();
+                if(!listeners.isEmpty()) fire(BoardListener.Kind.SHAKE, "EVENT SHAKE");
+            }finally{
+                commitLock.unlock();
+            }
+        }finally{
+            unlockTiles(0, tiles.length - 1);
+        }
+        awaitLogged(logged);
+    }
+
+    public void post(int x, int y, String color, String message) throws ProtocolException{
+        apply(BoardOp.post(x, y, color, message));
+    }
+
+    public void pin(int x, int y) throws ProtocolException{
+        apply(BoardOp.pin(x, y));
+    }
+
+    public void unpin(int x, int y) throws ProtocolException{
+        apply(BoardOp.unpin(x, y));
+    }
+
+    public void apply(BoardOp op) throws ProtocolException{
+        long logged;
+        int lo = firstTile(op), hi = tileOf(op.getY());
+        lockTiles(lo, hi);
+        try{
+            applyLocked(op, null);
+            logged = loggedSequence();
+        }finally{
+            unlockTiles(lo, hi);
+        }
+        awaitLogged(logged);
+    }
+
+    // Runs all ops under a single acquisition of the band locks they need. result[i] is
+    // null when op i succeeded, otherwise its failure. In atomic mode the first failure
+    // undoes every earlier op and the rest are not run; nothing of the batch becomes
+    // visible then.
+    public ProtocolException[] applyBatch(List<BoardOp> ops, boolean atomic){
+        ProtocolException[] result;
+        long logged;
+        // every band from the topmost to the bottommost op
+        int lo = tiles.length - 1, hi = 0;
+        for(BoardOp op : ops){
+            lo = Math.min(lo, firstTile(op));
+            hi = Math.max(hi, tileOf(op.getY()));
+        }
+        if(ops.isEmpty()) lo = hi;
+        lockTiles(lo, hi);
+        try{
+            result = applyBatchLocked(ops, atomic);
+            logged = loggedSequence();
+        }finally{
+            unlockTiles(lo, hi);
+        }
+        awaitLogged(logged);
+        return result;
+    }
+
+    private ProtocolException[] applyBatchLocked(List<BoardOp> ops, boolean atomic){
+        ProtocolException[] result = new ProtocolException[ops.size()];
+        if(!atomic){
+            for(int i = 0; i < ops.size(); i++){
+                try{
+                    applyLocked(ops.get(i), null);
+                }catch(ProtocolException e){
+                    result[i] = e;
+                }
+            }
+            return result;
+        }
+
+        // version bumps, journal entries, log records and events are held back until the
+        // whole batch is known to succeed, so a rollback leaves no trace outside the board
+        List<Runnable> undo = new ArrayList<>();
+        List<Runnable> effects = new ArrayList<>();
+        for(int i = 0; i < ops.size(); i++){
+            try{
+                undo.add(applyLocked(ops.get(i), effects));
+            }catch(ProtocolException e){
+                result[i] = e;
+                for(int u = undo.size() - 1; u >= 0; u--) undo.get(u).run();
+                return result;
+            }
+        }
+        commitLock.lock();
+        try{
+            if(log != null) log.beginAtomic();
+            for(Runnable effect : effects) effect.run();
+            if(log != null) log.endAtomic();
+        }finally{
+            commitLock.unlock();
+        }
+        return result;
+    }
+
+    // applies one op, its bands locked; effects go to deferred when given, otherwise
+    // run at once in the commit section. returns how to take the op back again
+    private Runnable applyLocked(BoardOp op, List<Runnable> deferred) throws ProtocolException{
+        Runnable effect;
+        Runnable undo;
+        switch(op.getKind()){
+            case POST: {
+                Tile t = tiles[tileOf(op.getY())];
+                int id = postLocked(t, op.getX(), op.getY(), op.getColor(), op.getMessage());
+                effect = () -> postEffect(t, id, op.getX(), op.getY(), op.getColor(), op.getMessage());
+                undo = () -> unpostLocked(t, id);
+                break;
+            }
+            case PIN: {
+                Hits hits = pinTargetsLocked(op.getX(), op.getY());
+                Hits flipped = hits.unpinned();
+                pinNotesLocked(op.getX(), op.getY(), hits);
+                effect = () -> pinEffect(BoardListener.Kind.PIN, op.getX(), op.getY(), flipped);
+                undo = () -> unpinNotesLocked(op.getX(), op.getY(), hits);
+                break;
+            }
+            default: {
+                Hits unpinned = unpinTargetsLocked(op.getX(), op.getY());
+                unpinNotesLocked(op.getX(), op.getY(), unpinned);
+                Hits flipped = unpinned.unpinned();
+                effect = () -> pinEffect(BoardListener.Kind.UNPIN, op.getX(), op.getY(), flipped);
+                undo = () -> pinNotesLocked(op.getX(), op.getY(), unpinned);
+                break;
+            }
+        }
+        if(deferred != null){
+            deferred.add(effect);
+        }else{
+            commitLock.lock();
+            try{
+                effect.run();
+            }finally{
+                commitLock.unlock();
+            }
+        }
+        return undo;
     }
 
-    public synchronized void post(int x, int y, String color, String message) throws ProtocolException{
+    private int postLocked(Tile t, int x, int y, String color, String message) throws ProtocolException{
         if(!validcolors.contains(color)){
             throw new ProtocolException(ErrorCode.COLOR_NOT_SUPPORTED, "Unsupported color");
         }
 
-        Note newNote = new Note(x, y, color, message);
-
-        if(!newNote.fitsInBoard(boardWidth, boardHeight, noteWidth, noteHeight)){
+        if(x < 0 || y < 0 || (long) x + noteWidth > boardWidth || (long) y + noteHeight > boardHeight){
             throw new ProtocolException(ErrorCode.OUT_OF_BOUNDS, "Note out of bounds");
         }
 
-        for(Note existing : notes){
-            if(newNote.completelyOverlaps(existing)){
-                throw new ProtocolException(ErrorCode.COMPLETE_OVERLAP, "Cannot completely overlap existing note");
-            }
+        if(t.grid.at(x, y) >= 0){
+            throw new ProtocolException(ErrorCode.COMPLETE_OVERLAP, "Cannot completely overlap existing note");
         }
 
-        notes.add(newNote);
+        int colorId = colorIds.get(color);
+        // the seq comes with the commit, until then only this writer can see the note
+        int id = t.store.add(Long.MAX_VALUE, x, y, colorId, message == null ? "" : message);
+        t.notes.add(id);
+        t.grid.add(id);
+        t.notesByColor[colorId].add(id);
+        if(t.messagesIndexed) t.messageIndex.add(id);
+        return id;
     }
 
-    public synchronized void pin(int x, int y) throws ProtocolException{
-        boolean found = false;
-        for(Note n : notes){
-            if(n.contains(x, y, noteWidth, noteHeight)){
-                found = true;
-                break;
+    private void postEffect(Tile t, int id, int x, int y, String color, String message){
+        t.store.setSeq(id, nextSeq++);
+        version++;
+        journal.append(version, ChangeJournal.NOTE, x, y);
+        if(log != null) log.logPost(x, y, color, message);
+
+        if(!listeners.isEmpty()){
+            String msg = message == null ? "" : message;
+            fire(BoardListener.Kind.POST, "EVENT POST " + x + " " + y + " " + color + " " + msg.length() + " " + msg);
+        }
+    }
+
+    // rollback of a POST from the same batch; it is the band's newest note, so it sits at the tail
+    private void unpostLocked(Tile t, int id){
+        t.notes.removeAt(t.notes.lastIndexOf(id));
+        t.grid.remove(id);
+        IntList bucket = t.notesByColor[t.store.color(id)];
+        bucket.removeAt(bucket.lastIndexOf(id));
+        IntList single = new IntList(1);
+        single.add(id);
+        t.messageIndex.removeAll(single);
+        t.store.remove(id);
+    }
+
+    // the notes at one point, split by band: ids[i] are ids in tiles[i]
+    private static final class Hits{
+        final Tile[] tiles;
+        final IntList[] ids;
+
+        Hits(Tile[] tiles, IntList[] ids){
+            this.tiles = tiles;
+            this.ids = ids;
+        }
+
+        int size(){
+            int n = 0;
+            for(IntList list : ids) n += list.size();
+            return n;
+        }
+
+        Hits unpinned(){
+            IntList[] result = new IntList[ids.length];
+            for(int t = 0; t < ids.length; t++){
+                NoteStore store = tiles[t].store;
+                result[t] = new IntList(ids[t].size());
+                for(int i = 0; i < ids[t].size(); i++){
+                    if(!store.isPinned(ids[t].get(i))) result[t].add(ids[t].get(i));
+                }
             }
+            return new Hits(tiles, result);
         }
-        if(!found){
+    }
+
+    // notes containing (x,y) in every band that can have some
+    private Hits notesAtLocked(int x, int y){
+        int lo = firstTileCovering(y), hi = tileOf(y);
+        Tile[] near = Arrays.copyOfRange(tiles, lo, hi + 1);
+        IntList[] ids = new IntList[near.length];
+        for(int i = 0; i < near.length; i++) ids[i] = near[i].grid.containing(x, y);
+        return new Hits(near, ids);
+    }
+
+    // the notes a pin at (x,y) goes through
+    private Hits pinTargetsLocked(int x, int y) throws ProtocolException{
+        Hits hits = notesAtLocked(x, y);
+        if(hits.size() == 0){
             throw new ProtocolException(ErrorCode.NO_NOTE_AT_COORDINATE, "No note at given coordinate");
         }
+        return hits;
+    }
+
+    // the notes that lose a pin when one is removed at (x,y)
+    private Hits unpinTargetsLocked(int x, int y) throws ProtocolException{
+        if(tiles[tileOf(y)].pins.count(x, y) == 0){
+            throw new ProtocolException(ErrorCode.PIN_NOT_FOUND, "No pin at given coordinate");
+        }
 
-        String k = key(x, y);
+        // remove pin from notes containing point (counts never drop below zero)
+        Hits unpinned = notesAtLocked(x, y);
+        for(int t = 0; t < unpinned.ids.length; t++){
+            NoteStore store = unpinned.tiles[t].store;
+            unpinned.ids[t].removeIf(id -> !store.isPinned(id));
+        }
+        return unpinned;
+    }
 
-        // pin affects all notes containing the point
-        for(Note n : notes){
-            if(n.contains(x, y, noteWidth, noteHeight)){
-                n.addPin();
+    // pin affects all given notes containing the point
+    private void pinNotesLocked(int x, int y, Hits targets){
+        for(int t = 0; t < targets.ids.length; t++){
+            NoteStore store = targets.tiles[t].store;
+            for(int i = 0; i < targets.ids[t].size(); i++){
+                store.addPin(targets.ids[t].get(i));
             }
         }
+        tiles[tileOf(y)].pins.add(x, y);
+    }
 
-        pinCountsAtCoord.put(k, pinCountsAtCoord.getOrDefault(k, 0) + 1);
+    private void unpinNotesLocked(int x, int y, Hits targets){
+        for(int t = 0; t < targets.ids.length; t++){
+            NoteStore store = targets.tiles[t].store;
+            for(int i = 0; i < targets.ids[t].size(); i++){
+                store.removePin(targets.ids[t].get(i));
+            }
+        }
+        tiles[tileOf(y)].pins.remove(x, y);
     }
 
-    public synchronized void unpin(int x, int y) throws ProtocolException{
-        String k = key(x, y);
-        Integer count = pinCountsAtCoord.get(k);
+    // flipped are the notes whose pinned state this PIN / UNPIN changed
+    private void pinEffect(BoardListener.Kind kind, int x, int y, Hits flipped){
+        version++;
+        journal.append(version, kind == BoardListener.Kind.PIN ? ChangeJournal.PIN : ChangeJournal.UNPIN, x, y);
+        for(int t = 0; t < flipped.ids.length; t++){
+            NoteStore store = flipped.tiles[t].store;
+            IntList ids = flipped.ids[t];
+            for(int i = 0; i < ids.size(); i++){
+                int id = ids.get(i);
+                journal.append(version, ChangeJournal.NOTE, store.x(id), store.y(id));
+            }
+        }
+        if(log != null){
+            if(kind == BoardListener.Kind.PIN) log.logPin(x, y);
+            else log.logUnpin(x, y);
+        }
 
-        if(count == null || count == 0){
-            throw new ProtocolException(ErrorCode.PIN_NOT_FOUND, "No pin at given coordinate");
+        if(!listeners.isEmpty()) fire(kind, pinEvent(kind.name(), x, y, flipped));
+    }
+
+    // Copies what a snapshot needs under the read lock of every band. No mutation can run
+    // meanwhile, so cut (typically a log rotation) marks exactly the point the copy
+    // describes and its result becomes the snapshot's logSegment.
+    public BoardSnapshot snapshot(LongSupplier cut){
+        BoardSnapshot s = new BoardSnapshot();
+        s.boardWidth = boardWidth;
+        s.boardHeight = boardHeight;
+        s.noteWidth = noteWidth;
+        s.noteHeight = noteHeight;
+        s.colors = colorNames.clone();
+
+        readLockTiles(0, tiles.length - 1);
+        try{
+            Selection all = selectLocked(0, tiles.length - 1, null, null, null, null, -1, Integer.MAX_VALUE, false);
+            s.xs = all.xs;
+            s.ys = all.ys;
+            s.noteColors = all.colors;
+            s.pinCounts = all.pinCounts;
+            s.messages = all.messages;
+
+            long[] pinned = pinKeysLocked();
+            s.pinXs = new int[pinned.length];
+            s.pinYs = new int[pinned.length];
+            s.pinCountsAtCoord = new int[pinned.length];
+            for(int i = 0; i < pinned.length; i++){
+                s.pinXs[i] = LongHashMap.unpackX(pinned[i]);
+                s.pinYs[i] = LongHashMap.unpackY(pinned[i]);
+                s.pinCountsAtCoord[i] = tiles[tileOf(s.pinYs[i])].pins.count(pinned[i]);
+            }
+
+            s.logSegment = cut.getAsLong();
+        }finally{
+            readUnlockTiles(0, tiles.length - 1);
+        }
+        return s;
+    }
+
+    // replaces everything on the board with the snapshot's contents
+    public void restore(BoardSnapshot s){
+        if(s.boardWidth != boardWidth || s.boardHeight != boardHeight || s.noteWidth != noteWidth || s.noteHeight != noteHeight){
+            throw new IllegalStateException("Snapshot is of a " + s.boardWidth + "x" + s.boardHeight
+                    + " board with " + s.noteWidth + "x" + s.noteHeight + " notes");
+        }
+        int[] colorMap = new int[s.colors.length];
+        for(int c = 0; c < s.colors.length; c++){
+            Integer id = colorIds.get(s.colors[c]);
+            if(id == null) throw new IllegalStateException("Snapshot uses color " + s.colors[c] + " which is not configured");
+            colorMap[c] = id;
+        }
+
+        boolean unindexed = false;
+        lockTiles(0, tiles.length - 1);
+        try{
+            for(Tile t : tiles){
+                t.clear();
+                t.indexedBelowSeq = nextSeq;
+            }
+
+            for(int i = 0; i < s.xs.length; i++){
+                int colorId = colorMap[s.noteColors[i]];
+                Tile t = tiles[tileOf(s.ys[i])];
+                int id = t.store.add(nextSeq++, s.xs[i], s.ys[i], colorId, s.messages[i]);
+                t.store.setPinCount(id, s.pinCounts[i]);
+                t.notes.add(id);
+                t.grid.add(id);
+                t.notesByColor[colorId].add(id);
+            }
+            for(int i = 0; i < s.pinXs.length; i++){
+                tiles[tileOf(s.pinYs[i])].pins.add(LongHashMap.pack(s.pinXs[i], s.pinYs[i]), s.pinCountsAtCoord[i]);
+            }
+            for(Tile t : tiles){
+                t.messagesIndexed = t.notes.isEmpty();
+                unindexed |= !t.messagesIndexed;
+            }
+
+            // like CLEAR, nobody can be caught up by a delta across this
+            commitLock.lock();
+            try{
+                version++;
+                journal.reset(version);
+            }finally{
+                commitLock.unlock();
+            }
+        }finally{
+            unlockTiles(0, tiles.length - 1);
+        }
+
+        // indexing a million messages takes longer than the rest of the restore together
+        if(unindexed){
+            Thread indexer = new Thread(() -> {
+                for(Tile t : tiles){
+                    while(indexMessagesSlice(t)){}
+                }
+            }, "message-indexer");
+            indexer.setDaemon(true);
+            indexer.start();
+        }
+    }
+
+    // Indexes the next slice of the notes restore() left out of the band; false once all
+    // are in. The read lock is enough: readers do not look at the index until it is
+    // complete and every writer, which would touch it, is kept out.
+    private boolean indexMessagesSlice(Tile t){
+        t.lock.readLock().lock();
+        try{
+            synchronized(t.messageIndex){
+                if(t.messagesIndexed) return false;
+                IntList notes = t.notes;
+                int lo = 0, hi = notes.size();
+                while(lo < hi){
+                    int mid = (lo + hi) >>> 1;
+                    if(t.store.seq(notes.get(mid)) < t.indexedBelowSeq) lo = mid + 1;
+                    else hi = mid;
+                }
+                int end = Math.min(notes.size(), lo + INDEX_SLICE);
+                for(int i = lo; i < end; i++) t.messageIndex.add(notes.get(i));
+                if(end == notes.size()){
+                    t.messagesIndexed = true;
+                    return false;
+                }
+                t.indexedBelowSeq = t.store.seq(notes.get(end));
+                return true;
+            }
+        }finally{
+            t.lock.readLock().unlock();
+        }
+    }
+
+    public long getVersion(){
+        return version;
+    }
+
+    // unfiltered GET, encoded by Protocol.encodeLine; shared between callers, do not modify
+    public byte[] encodedNotesResponse(){
+        return cachedResponse(NOTES_LINE, () -> Protocol.encodeLine(getNotesResponse(null, null, null, null)));
+    }
+
+    // GET PINS, encoded by Protocol.encodeLine; shared between callers, do not modify
+    public byte[] encodedPinsResponse(){
+        return cachedResponse(PINS_LINE, () -> Protocol.encodeLine(getPinsResponse()));
+    }
+
+    // the same two responses as BinaryProtocol frames
+    public byte[] encodedNotesFrame(){
+        return cachedResponse(NOTES_FRAME, () -> getNotesFrame(null, null, null, null));
+    }
+
+    public byte[] encodedPinsFrame(){
+        return cachedResponse(PINS_FRAME, () -> BinaryProtocol.textFrame(getPinsResponse()));
+    }
+
+    private byte[] cachedResponse(int slot, Supplier<byte[]> encode){
+        CachedResponse c = responseCache.get(slot);
+        if(c != null && c.version == version){
+            cacheHits.increment();
+            return c.bytes;
+        }
+        cacheMisses.increment();
+
+        // any mutation in between would have moved the version, so an unchanged
+        // version means the response describes exactly that version
+        long before = version;
+        byte[] bytes = encode.get();
+        if(version == before) responseCache.set(slot, new CachedResponse(before, bytes));
+        return bytes;
+    }
+
+    public long getResponseCacheHits(){ return cacheHits.sum(); }
+    public long getResponseCacheMisses(){ return cacheMisses.sum(); }
+
+    public long getLockAcquisitions(){ return lockAcquisitions.sum(); }
+    // shared, do not modify
+    public LatencyHistogram getLockWaits(){ return lockWaits; }
+
+    // GET since=<v>, built under the read locks since a delta is expected to be small:
+    //   DATA NOTES DELTA <version> <u> [x y color pinned msgLen message]... <r> [x y]...
+    //     u notes added or changed since v (replace whatever is at that origin), r origins removed
+    //   DATA NOTES RESYNC <version> <k> [x y color pinned msgLen message]...
+    //     the journal no longer reaches back to v, this is the whole board
+    public String getNotesDelta(long since){
+        readLockTiles(0, tiles.length - 1);
+        try{
+            StringBuilder sb = new StringBuilder();
+            if(since > version || !journal.covers(since)){
+                Selection all = selectLocked(0, tiles.length - 1, null, null, null, null, -1, Integer.MAX_VALUE, false);
+                sb.append("DATA NOTES RESYNC ").append(version).append(" ").append(all.size);
+                for(int i = 0; i < all.size; i++){
+                    appendNote(sb, all.xs[i], all.ys[i], colorNames[all.colors[i]], all.pinCounts[i] > 0, all.messages[i]);
+                }
+                return sb.toString();
+            }
+
+            // last change per origin wins, the note's current state is what gets sent
+            LongHashMap<Boolean> seen = new LongHashMap<>();
+            StringBuilder upserts = new StringBuilder();
+            int[] upserted = new int[1];
+            List<Long> removed = new ArrayList<>();
+            journal.forEachSince(since, (kind, x, y) -> {
+                if(kind != ChangeJournal.NOTE) return;
+                long origin = LongHashMap.pack(x, y);
+                if(seen.put(origin, Boolean.TRUE) != null) return;
+                Tile t = tiles[tileOf(y)];
+                int id = t.grid.at(x, y);
+                if(id >= 0){
+                    appendNote(upserts, t.store, id);
+                    upserted[0]++;
+                }
+                else removed.add(origin);
+            });
+
+            sb.append("DATA NOTES DELTA ").append(version).append(" ").append(upserted[0]).append(upserts);
+            sb.append(" ").append(removed.size());
+            for(long origin : removed){
+                sb.append(" ").append(LongHashMap.unpackX(origin)).append(" ").append(LongHashMap.unpackY(origin));
+            }
+            return sb.toString();
+        }finally{
+            readUnlockTiles(0, tiles.length - 1);
         }
+    }
+
+    // GET PINS since=<v>:
+    //   DATA PINS DELTA <version> <a> [x y]... <r> [x y]...   pins added / removed since v
+    //   DATA PINS RESYNC <version> <k> [x y]...                 every pin, as in DATA PINS
+    public String getPinsDelta(long since){
+        readLockTiles(0, tiles.length - 1);
+        try{
+            StringBuilder sb = new StringBuilder();
+            if(since > version || !journal.covers(since)){
+                String full = getPinsResponse();
+                sb.append("DATA PINS RESYNC ").append(version).append(full.substring("DATA PINS".length()));
+                return sb.toString();
+            }
 
-        if(count == 1) pinCountsAtCoord.remove(k);
-        else pinCountsAtCoord.put(k, count - 1);
+            // net change per coordinate, so a pin added and removed again cancels out
+            LongHashMap<int[]> net = new LongHashMap<>();
+            List<Long> order = new ArrayList<>();
+            journal.forEachSince(since, (kind, x, y) -> {
+                if(kind == ChangeJournal.NOTE) return;
+                long k = LongHashMap.pack(x, y);
+                int[] c = net.get(k);
+                if(c == null){
+                    c = new int[1];
+                    net.put(k, c);
+                    order.add(k);
+                }
+                c[0] += kind == ChangeJournal.PIN ? 1 : -1;
+            });
+            Collections.sort(order);
 
-        // remove pin from notes containing point
-        for(Note n : notes){
-            if(n.contains(x, y, noteWidth, noteHeight)){
-                n.removePin();
+            StringBuilder added = new StringBuilder();
+            StringBuilder removed = new StringBuilder();
+            int addedCount = 0, removedCount = 0;
+            for(long k : order){
+                int c = net.get(k)[0];
+                StringBuilder target = c > 0 ? added : removed;
+                for(int i = 0; i < Math.abs(c); i++){
+                    target.append(" ").append(LongHashMap.unpackX(k)).append(" ").append(LongHashMap.unpackY(k));
+                }
+                if(c > 0) addedCount += c;
+                else removedCount -= c;
             }
+
+            sb.append("DATA PINS DELTA ").append(version)
+              .append(" ").append(addedCount).append(added)
+              .append(" ").append(removedCount).append(removed);
+            return sb.toString();
+        }finally{
+            readUnlockTiles(0, tiles.length - 1);
+        }
+    }
+
+    // under the lock, straight from the store
+    private void appendNote(StringBuilder sb, NoteStore store, int id){
+        appendNote(sb, store.x(id), store.y(id), colorNames[store.color(id)], store.isPinned(id), store.message(id));
+    }
+
+    private static void appendNote(StringBuilder sb, int x, int y, String color, boolean pinned, String msg){
+        sb.append(" ")
+          .append(x).append(" ")
+          .append(y).append(" ")
+          .append(color).append(" ")
+          .append(pinned ? 1 : 0).append(" ")
+          .append(msg.length()).append(" ")
+          .append(msg);
+    }
+
+    // every pinned coordinate in (x, y) order; caller holds all the read locks
+    private long[] pinKeysLocked(){
+        if(tiles.length == 1) return tiles[0].pins.sortedKeys();
+        long[][] parts = new long[tiles.length][];
+        int n = 0;
+        for(int i = 0; i < tiles.length; i++){
+            parts[i] = tiles[i].pins.sortedKeys();
+            n += parts[i].length;
+        }
+        long[] all = new long[n];
+        int pos = 0;
+        for(long[] part : parts){
+            System.arraycopy(part, 0, all, pos, part.length);
+            pos += part.length;
         }
+        Arrays.sort(all);
+        return all;
     }
 
     // single-line response: DATA PINS <k> x1 y1 x2 y2 ...
-    public synchronized String getPinsResponse(){
+    public String getPinsResponse(){
+        long[] pinned;
+        int[] counts;
         int totalPins = 0;
-        for(int c : pinCountsAtCoord.values()) totalPins += c;
+        readLockTiles(0, tiles.length - 1);
+        try{
+            pinned = pinKeysLocked();
+            counts = new int[pinned.length];
+            for(int i = 0; i < pinned.length; i++){
+                counts[i] = tiles[tileOf(LongHashMap.unpackY(pinned[i]))].pins.count(pinned[i]);
+            }
+            for(Tile t : tiles) totalPins += t.pins.total();
+        }finally{
+            readUnlockTiles(0, tiles.length - 1);
+        }
 
         StringBuilder sb = new StringBuilder();
         sb.append("DATA PINS ").append(totalPins);
-
-        // stable ordering (optional)
-        List<String> keys = new ArrayList<>(pinCountsAtCoord.keySet());
-        keys.sort((a,b)->{
-            String[] A=a.split(","), B=b.split(",");
-            int ax=Integer.parseInt(A[0]), ay=Integer.parseInt(A[1]);
-            int bx=Integer.parseInt(B[0]), by=Integer.parseInt(B[1]);
-            if(ax!=bx) return Integer.compare(ax,bx);
-            return Integer.compare(ay,by);
-        });
-
-        for(String coordKey : keys){
-            int count = pinCountsAtCoord.get(coordKey);
-            String[] xy = coordKey.split(",");
-            int px = Integer.parseInt(xy[0]);
-            int py = Integer.parseInt(xy[1]);
-
-            for(int i=0;i<count;i++){
-                sb.append(" ").append(px).append(" ").append(py);
+        for(int i = 0; i < pinned.length; i++){
+            int x = LongHashMap.unpackX(pinned[i]);
+            int y = LongHashMap.unpackY(pinned[i]);
+            for(int c = 0; c < counts[i]; c++){
+                sb.append(" ").append(x).append(" ").append(y);
             }
         }
 
         return sb.toString();
     }
 
-    // single-line response: DATA NOTES <k> x y color pinned msgLen message ...
-    public synchronized String getNotesResponse(String colorFilter, Integer containsX, Integer containsY, String refersTo){
-        List<Note> matches = new ArrayList<>();
+    // what a GET matched, copied out under the read locks so the response can be built
+    // after them: messages as text for DATA NOTES, as UTF-8 for a NOTES frame
+    private static final class Selection{
+        final int size;
+        final long[] seqs;
+        final int[] xs, ys, colors, pinCounts;
+        final String[] messages;
+        final byte[][] utf8;
+
+        Selection(int size, boolean asUtf8){
+            this.size = size;
+            seqs = new long[size];
+            xs = new int[size];
+            ys = new int[size];
+            colors = new int[size];
+            pinCounts = new int[size];
+            messages = asUtf8 ? null : new String[size];
+            utf8 = asUtf8 ? new byte[size][] : null;
+        }
 
-        for(Note n : notes){
-            if(colorFilter != null && !n.getColor().equalsIgnoreCase(colorFilter)) continue;
+        void copyTo(int from, Selection to, int at){
+            to.seqs[at] = seqs[from];
+            to.xs[at] = xs[from];
+            to.ys[at] = ys[from];
+            to.colors[at] = colors[from];
+            to.pinCounts[at] = pinCounts[from];
+            if(messages != null) to.messages[at] = messages[from];
+            else to.utf8[at] = utf8[from];
+        }
 
-            if(containsX != null && containsY != null){
-                if(!n.contains(containsX, containsY, noteWidth, noteHeight)) continue;
+        // both in posting order, the first max of them
+        static Selection merge(Selection a, Selection b, int max){
+            Selection m = new Selection((int) Math.min((long) a.size + b.size, max), a.utf8 != null);
+            int i = 0, j = 0, k = 0;
+            while(k < m.size && i < a.size && j < b.size){
+                if(a.seqs[i] < b.seqs[j]) a.copyTo(i++, m, k++);
+                else b.copyTo(j++, m, k++);
             }
+            while(k < m.size && i < a.size) a.copyTo(i++, m, k++);
+            while(k < m.size && j < b.size) b.copyTo(j++, m, k++);
+            return m;
+        }
+    }
+
+    // color ids whose name equalsIgnoreCase the filter
+    private boolean[] matchingColors(String colorFilter){
+        boolean[] match = new boolean[colorNames.length];
+        for(int i = 0; i < colorNames.length; i++) match[i] = colorNames[i].equalsIgnoreCase(colorFilter);
+        return match;
+    }
 
-            if(refersTo != null){
-                String msg = n.getMessage() == null ? "" : n.getMessage();
-                if(!msg.toLowerCase().contains(refersTo.toLowerCase())) continue;
+    // a band's notes of the matching colors, in posting order
+    private static IntList notesWithColor(Tile t, boolean[] match){
+        IntList result = null;
+        for(int i = 0; i < match.length; i++){
+            if(!match[i]) continue;
+            if(result == null){
+                result = t.notesByColor[i];
+            }else{
+                // only when the configured colors differ just by case
+                result = mergeBySeq(t.store, result, t.notesByColor[i]);
             }
+        }
+        return result == null ? new IntList(1) : result;
+    }
+
+    private static IntList mergeBySeq(NoteStore store, IntList a, IntList b){
+        IntList result = new IntList(a.size() + b.size());
+        int i = 0, j = 0;
+        while(i < a.size() && j < b.size()){
+            if(store.seq(a.get(i)) < store.seq(b.get(j))) result.add(a.get(i++));
+            else result.add(b.get(j++));
+        }
+        while(i < a.size()) result.add(a.get(i++));
+        while(j < b.size()) result.add(b.get(j++));
+        return result;
+    }
 
-            matches.add(n);
+    // the few notes around a point, into posting order
+    private static void sortBySeq(NoteStore store, IntList ids){
+        for(int i = 1; i < ids.size(); i++){
+            int id = ids.get(i);
+            long seq = store.seq(id);
+            int j = i - 1;
+            for(; j >= 0 && store.seq(ids.get(j)) > seq; j--) ids.set(j + 1, ids.get(j));
+            ids.set(j + 1, id);
         }
+    }
+
+    // single-line response: DATA NOTES <k> x y color pinned msgLen message ...
+    public String getNotesResponse(String colorFilter, Integer containsX, Integer containsY, String refersTo){
+        Selection sel = selectNotes(colorFilter, containsX, containsY, refersTo, -1, Integer.MAX_VALUE, false);
 
         StringBuilder sb = new StringBuilder();
-        sb.append("DATA NOTES ").append(matches.size());
+        sb.append("DATA NOTES ").append(sel.size);
 
-        for(Note n : matches){
-            String msg = n.getMessage() == null ? "" : n.getMessage();
-            int pinned = n.isPinned() ? 1 : 0;
-            sb.append(" ")
-              .append(n.getX()).append(" ")
-              .append(n.getY()).append(" ")
-              .append(n.getColor()).append(" ")
-              .append(pinned).append(" ")
-              .append(msg.length()).append(" ")
-              .append(msg);
+        for(int i=0;i<sel.size;i++){
+            appendNote(sb, sel.xs[i], sel.ys[i], colorNames[sel.colors[i]], sel.pinCounts[i] > 0, sel.messages[i]);
         }
 
         return sb.toString();
     }
+
+    // GET ... limit=<n> [cursor=<c>], the first n matching notes posted after the cursor:
+    //   DATA NOTES PAGE <next> <k> [x y color pinned msgLen message]...
+    // next is the cursor for the following page, END after the last matching note. Pages
+    // follow posting order, so a walk never repeats a note or skips one that stays on the
+    // board; notes posted meanwhile turn up on a later page. A cursor is the seq of the
+    // page's last note, but clients should treat it as opaque. after is -1 for the first page.
+    public String getNotesPage(String colorFilter, Integer containsX, Integer containsY, String refersTo, long after, int limit){
+        // one more than asked for tells whether there is a next page
+        Selection sel = selectNotes(colorFilter, containsX, containsY, refersTo, after, limit + 1, false);
+        int k = Math.min(sel.size, limit);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("DATA NOTES PAGE ");
+        if(sel.size > limit) sb.append(sel.seqs[k - 1]);
+        else sb.append("END");
+        sb.append(" ").append(k);
+
+        for(int i = 0; i < k; i++){
+            appendNote(sb, sel.xs[i], sel.ys[i], colorNames[sel.colors[i]], sel.pinCounts[i] > 0, sel.messages[i]);
+        }
+        return sb.toString();
+    }
+
+    // GET ... stream: the same notes as a plain GET, as lines of at most chunk notes each,
+    // then a line with the total:
+    //   DATA NOTES PART <k> [x y color pinned msgLen message]...
+    //   DATA NOTES END <total>
+    // The selection is copied under the read locks like any GET, so the lines describe one
+    // state of the board; only the formatting is done a chunk at a time, so the response
+    // never exists as one string and the first lines can leave before the last is built.
+    public void streamNotes(String colorFilter, Integer containsX, Integer containsY, String refersTo, int chunk, ResponseWriter out){
+        Selection sel = selectNotes(colorFilter, containsX, containsY, refersTo, -1, Integer.MAX_VALUE, false);
+
+        StringBuilder sb = new StringBuilder();
+        for(int from = 0; from < sel.size; from += chunk){
+            int to = Math.min(sel.size, from + chunk);
+            sb.setLength(0);
+            sb.append("DATA NOTES PART ").append(to - from);
+            for(int i = from; i < to; i++){
+                appendNote(sb, sel.xs[i], sel.ys[i], colorNames[sel.colors[i]], sel.pinCounts[i] > 0, sel.messages[i]);
+            }
+            out.println(sb.toString());
+        }
+        out.println("DATA NOTES END " + sel.size);
+    }
+
+    // the same notes as a BinaryProtocol NOTES frame
+    public byte[] getNotesFrame(String colorFilter, Integer containsX, Integer containsY, String refersTo){
+        Selection sel = selectNotes(colorFilter, containsX, containsY, refersTo, -1, Integer.MAX_VALUE, true);
+        boolean[] pinned = new boolean[sel.size];
+        for(int i = 0; i < sel.size; i++) pinned[i] = sel.pinCounts[i] > 0;
+        return BinaryProtocol.notesFrame(sel.size, sel.xs, sel.ys, sel.colors, pinned, sel.utf8);
+    }
+
+    // a point query only needs the bands that can cover the point, anything else all of them
+    private Selection selectNotes(String colorFilter, Integer containsX, Integer containsY, String refersTo, long after, int max, boolean asUtf8){
+        boolean point = containsX != null && containsY != null;
+        int lo = point ? firstTileCovering(containsY) : 0;
+        int hi = point ? tileOf(containsY) : tiles.length - 1;
+        readLockTiles(lo, hi);
+        try{
+            return selectLocked(lo, hi, colorFilter, containsX, containsY, refersTo, after, max, asUtf8);
+        }finally{
+            readUnlockTiles(lo, hi);
+        }
+    }
+
+    // the first max matching notes of bands lo..hi posted after seq after, in posting
+    // order; ids are only good while the locks are held, so everything the response
+    // needs is copied out before that
+    private Selection selectLocked(int lo, int hi, String colorFilter, Integer containsX, Integer containsY, String refersTo, long after, int max, boolean asUtf8){
+        String foldedRefersTo = refersTo == null ? null : refersTo.toLowerCase();
+        boolean[] colorMatch = colorFilter == null ? null : matchingColors(colorFilter);
+
+        List<Selection> parts = new ArrayList<>();
+        for(int i = lo; i <= hi; i++){
+            parts.add(selectIn(tiles[i], colorMatch, containsX, containsY, foldedRefersTo, after, max, asUtf8));
+        }
+        // merged pairwise, so each note is copied about log2(bands) times
+        while(parts.size() > 1){
+            List<Selection> merged = new ArrayList<>();
+            for(int i = 0; i + 1 < parts.size(); i += 2) merged.add(Selection.merge(parts.get(i), parts.get(i + 1), max));
+            if(parts.size() % 2 == 1) merged.add(parts.get(parts.size() - 1));
+            parts = merged;
+        }
+        return parts.get(0);
+    }
+
+    // index of the first note in ids posted after seq after; every candidate list is in posting order
+    private static int firstAfter(NoteStore store, IntList ids, long after){
+        int lo = 0, hi = ids.size();
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(store.seq(ids.get(mid)) <= after) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private Selection selectIn(Tile t, boolean[] colorMatch, Integer containsX, Integer containsY, String foldedRefersTo, long after, int max, boolean asUtf8){
+        NoteStore store = t.store;
+        boolean point = containsX != null && containsY != null;
+
+        // start from the smallest candidate set any filter can give us: a point only
+        // touches the few notes around it, a color only its own bucket, and a search
+        // term only the notes sharing its rarest trigram
+        IntList candidates = t.notes;
+        if(colorMatch != null){
+            candidates = notesWithColor(t, colorMatch);
+        }
+        if(point){
+            IntList near = t.grid.containing(containsX, containsY);
+            if(near.size() < candidates.size()){
+                sortBySeq(store, near);
+                candidates = near;
+            }
+        }
+        if(foldedRefersTo != null && t.messagesIndexed){
+            IntList mentioned = t.messageIndex.candidates(foldedRefersTo);
+            if(mentioned != null && mentioned.size() < candidates.size()) candidates = mentioned;
+        }
+
+        IntList matches = new IntList();
+        int from = after < 0 ? 0 : firstAfter(store, candidates, after);
+        for(int i = from; i < candidates.size() && matches.size() < max; i++){
+            int id = candidates.get(i);
+            if(colorMatch != null && !colorMatch[store.color(id)]) continue;
+
+            if(point){
+                if(!store.contains(id, containsX, containsY, noteWidth, noteHeight)) continue;
+            }
+
+            if(foldedRefersTo != null){
+                if(!store.message(id).toLowerCase().contains(foldedRefersTo)) continue;
+            }
+
+            matches.add(id);
+        }
+
+        Selection sel = new Selection(matches.size(), asUtf8);
+        for(int i = 0; i < sel.size; i++){
+            int id = matches.get(i);
+            sel.seqs[i] = store.seq(id);
+            sel.xs[i] = store.x(id);
+            sel.ys[i] = store.y(id);
+            sel.colors[i] = store.color(id);
+            sel.pinCounts[i] = store.pinCount(id);
+            if(asUtf8) sel.utf8[i] = store.messageUtf8(id);
+            else sel.messages[i] = store.message(id);
+        }
+        return sel;
+    }
 }
@@ -0,0 +1,7 @@
+// Receives board changes as protocol lines for SUBSCRIBE connections.
+// Called inside the board's commit section and in mutation order, so it must not block.
+public interface BoardListener{
+    enum Kind{ SNAPSHOT, POST, PIN, UNPIN, SHAKE, CLEAR }
+
+    void onEvent(Kind kind, String line);
+}
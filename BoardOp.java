@@ -0,0 +1,36 @@
+// One POST, PIN or UNPIN request, parsed and ready to apply to a Board, alone or in a BATCH.
+public class BoardOp{
+    public enum Kind{ POST, PIN, UNPIN }
+
+    private final Kind kind;
+    private final int x;
+    private final int y;
+    private final String color;
+    private final String message;
+
+    private BoardOp(Kind kind, int x, int y, String color, String message){
+        this.kind = kind;
+        this.x = x;
+        this.y = y;
+        this.color = color;
+        this.message = message;
+    }
+
+    public static BoardOp post(int x, int y, String color, String message){
+        return new BoardOp(Kind.POST, x, y, color, message);
+    }
+
+    public static BoardOp pin(int x, int y){
+        return new BoardOp(Kind.PIN, x, y, null, null);
+    }
+
+    public static BoardOp unpin(int x, int y){
+        return new BoardOp(Kind.UNPIN, x, y, null, null);
+    }
+
+    public Kind getKind(){ return kind; }
+    public int getX(){ return x; }
+    public int getY(){ return y; }
+    public String getColor(){ return color; }
+    public String getMessage(){ return message; }
+}
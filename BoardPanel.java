@@ -50,6 +50,48 @@ public class BoardPanel extends JPanel {
         repaint();
     }
 
+    // the next page or part of a paged or streamed GET
+    public void addNotes(List<NoteView> more) {
+        notes.addAll(more);
+        repaint();
+    }
+
+    // ---- incremental updates from SUBSCRIBE events ----
+
+    public void addNote(NoteView n) {
+        notes.add(n);
+        repaint();
+    }
+
+    public void addPin(Point p) {
+        pins.add(p);
+        repaint();
+    }
+
+    public void removePin(Point p) {
+        pins.remove(p);
+        repaint();
+    }
+
+    // notes are identified by their origin, the server never lets two share one
+    public void setPinned(int x, int y, int pinned) {
+        for (NoteView n : notes) {
+            if (n.x == x && n.y == y) n.pinned = pinned;
+        }
+        repaint();
+    }
+
+    public void removeUnpinned() {
+        notes.removeIf(n -> n.pinned == 0);
+        repaint();
+    }
+
+    public void clearAll() {
+        notes.clear();
+        pins.clear();
+        repaint();
+    }
+
     @Override
     public Dimension getPreferredSize() {
         return new Dimension(900, 420);
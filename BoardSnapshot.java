@@ -0,0 +1,158 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Point-in-time copy of a Board, and its file format. Board.snapshot() fills one in
+// under the lock (plain array copies, no I/O); write() then runs without any lock.
+// read() maps the file and pulls every column out with bulk gets, so a restart
+// rebuilds the board without going through individual posts.
+//
+// file = int MAGIC, int FORMAT, long logSegment, int boardW, boardH, noteW, noteH,
+//        int c, c strings (color names),
+//        int n, then columns of n: int x, int y, int color, int pinCount, int msgBytes,
+//        the UTF-8 bytes of all n messages back to back,
+//        int p, then columns of p: int pinX, int pinY, int count,
+//        int crc32 of everything before it
+// string = int n, n bytes UTF-8
+public class BoardSnapshot{
+    private static final int MAGIC = 0x42425331;   // "BBS1"
+    private static final int FORMAT = 1;
+
+    // the first log segment not contained in this snapshot
+    public long logSegment;
+
+    public int boardWidth, boardHeight, noteWidth, noteHeight;
+    public String[] colors;
+
+    // notes in posting order; color indexes into colors
+    public int[] xs, ys, noteColors, pinCounts;
+    public String[] messages;
+
+    // pins by coordinate
+    public int[] pinXs, pinYs, pinCountsAtCoord;
+
+    public void write(Path file) throws IOException{
+        try(FileOutputStream fos = new FileOutputStream(file.toFile())){
+            CheckedOutputStream checked = new CheckedOutputStream(fos, new CRC32());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 256 * 1024));
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(logSegment);
+            out.writeInt(boardWidth);
+            out.writeInt(boardHeight);
+            out.writeInt(noteWidth);
+            out.writeInt(noteHeight);
+            out.writeInt(colors.length);
+            for(String c : colors) writeString(out, c);
+
+            int n = xs.length;
+            byte[][] msgBytes = new byte[n][];
+            for(int i = 0; i < n; i++){
+                msgBytes[i] = messages[i] == null ? new byte[0] : messages[i].getBytes(StandardCharsets.UTF_8);
+            }
+            out.writeInt(n);
+            writeInts(out, xs);
+            writeInts(out, ys);
+            writeInts(out, noteColors);
+            writeInts(out, pinCounts);
+            for(byte[] m : msgBytes) out.writeInt(m.length);
+            for(byte[] m : msgBytes) out.write(m);
+
+            out.writeInt(pinXs.length);
+            writeInts(out, pinXs);
+            writeInts(out, pinYs);
+            writeInts(out, pinCountsAtCoord);
+
+            out.flush();
+            // the checksum itself is written past the checked stream
+            int crc = (int) checked.getChecksum().getValue();
+            fos.write(ByteBuffer.allocate(4).putInt(crc).array());
+            fos.getFD().sync();
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException{
+        for(int v : values) out.writeInt(v);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException{
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    // throws IOException for a file that is truncated, corrupt or not a snapshot
+    public static BoardSnapshot read(Path file) throws IOException{
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = ch.size();
+            if(size < 8 || size > Integer.MAX_VALUE) throw new IOException("Bad snapshot size " + size);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            ByteBuffer body = buf.duplicate();
+            body.limit((int) size - 4);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if((int) crc.getValue() != buf.getInt((int) size - 4)) throw new IOException("Snapshot checksum mismatch");
+
+            try{
+                buf.limit((int) size - 4);
+                if(buf.getInt() != MAGIC || buf.getInt() != FORMAT) throw new IOException("Not a board snapshot");
+
+                BoardSnapshot s = new BoardSnapshot();
+                s.logSegment = buf.getLong();
+                s.boardWidth = buf.getInt();
+                s.boardHeight = buf.getInt();
+                s.noteWidth = buf.getInt();
+                s.noteHeight = buf.getInt();
+                s.colors = new String[buf.getInt()];
+                for(int i = 0; i < s.colors.length; i++) s.colors[i] = readString(buf);
+
+                int n = buf.getInt();
+                s.xs = readInts(buf, n);
+                s.ys = readInts(buf, n);
+                s.noteColors = readInts(buf, n);
+                s.pinCounts = readInts(buf, n);
+                int[] msgLens = readInts(buf, n);
+                s.messages = new String[n];
+                byte[] chunk = new byte[0];
+                for(int i = 0; i < n; i++){
+                    if(chunk.length < msgLens[i]) chunk = new byte[Math.max(msgLens[i], 1024)];
+                    buf.get(chunk, 0, msgLens[i]);
+                    s.messages[i] = new String(chunk, 0, msgLens[i], StandardCharsets.UTF_8);
+                }
+
+                int p = buf.getInt();
+                s.pinXs = readInts(buf, p);
+                s.pinYs = readInts(buf, p);
+                s.pinCountsAtCoord = readInts(buf, p);
+                return s;
+            }catch(RuntimeException e){
+                // BufferUnderflowException, NegativeArraySizeException and the like
+                throw new IOException("Malformed snapshot: " + e, e);
+            }
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buf, int n){
+        int[] values = new int[n];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + n * 4);
+        return values;
+    }
+
+    private static String readString(ByteBuffer buf){
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,67 @@
+// Bounded ring of board changes, each tagged with the board version that made it.
+// Lets GET since=<v> answer with only what changed after v; once the ring has wrapped
+// past v (or the board was cleared after v) the caller has to send a full resync instead.
+public class ChangeJournal{
+    public static final byte NOTE = 0;   // note at origin (x,y) was added, removed or changed pinned state
+    public static final byte PIN = 1;    // one pin added at (x,y)
+    public static final byte UNPIN = 2;  // one pin removed at (x,y)
+
+    public interface Visitor{
+        void visit(byte kind, int x, int y);
+    }
+
+    private final long[] versions;
+    private final byte[] kinds;
+    private final int[] xs;
+    private final int[] ys;
+
+    private int head = 0;   // next slot to write
+    private int size = 0;
+
+    // oldest version a delta can still be computed from
+    private long floor = 0;
+
+    public ChangeJournal(int capacity){
+        versions = new long[capacity];
+        kinds = new byte[capacity];
+        xs = new int[capacity];
+        ys = new int[capacity];
+    }
+
+    public void append(long version, byte kind, int x, int y){
+        if(size == versions.length){
+            // overwriting the oldest entry loses part of what happened at its version
+            floor = Math.max(floor, versions[head]);
+        }else{
+            size++;
+        }
+        versions[head] = version;
+        kinds[head] = kind;
+        xs[head] = x;
+        ys[head] = y;
+        head = (head + 1) % versions.length;
+    }
+
+    // everything up to and including version is gone, e.g. after CLEAR
+    public void reset(long version){
+        size = 0;
+        head = 0;
+        floor = version;
+    }
+
+    public boolean covers(long since){
+        return since >= floor;
+    }
+
+    // visits every change made after version since, oldest first
+    public void forEachSince(long since, Visitor v){
+        // versions only grow, so walk back from the newest entry to find where to start
+        int n = 0;
+        while(n < size && versions[(head - 1 - n + versions.length) % versions.length] > since) n++;
+
+        for(int i = n; i > 0; i--){
+            int idx = (head - i + versions.length) % versions.length;
+            v.visit(kinds[idx], xs[idx], ys[idx]);
+        }
+    }
+}
@@ -1,8 +1,11 @@
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 public class ClientGUI extends JFrame {
@@ -13,9 +16,15 @@ public class ClientGUI extends JFrame {
     private final JButton connectBtn = new JButton("Connect");
     private final JButton disconnectBtn = new JButton("Disconnect");
 
-    // Auto refresh controls
-    private final JCheckBox autoRefreshBox = new JCheckBox("Auto Refresh", true);
-    private Timer autoRefreshTimer; // Swing timer
+    // Live updates: a second connection SUBSCRIBEs and the server pushes every change
+    private final JCheckBox autoRefreshBox = new JCheckBox("Live Updates", true);
+    private volatile Socket subSocket;
+
+    // Binary protocol: negotiated on connect, DATA NOTES then arrive as compact frames
+    private final JCheckBox binaryBox = new JCheckBox("Binary Protocol", true);
+
+    // Compression: negotiated on connect, large responses then arrive deflated
+    private final JCheckBox compressBox = new JCheckBox("Compression", false);
 
     // Filter-lock: when you run a filtered GET, pause polling on THIS client
     private boolean filterLock = false;
@@ -39,6 +48,11 @@ public class ClientGUI extends JFrame {
     private final JTextField getContainsY = new JTextField(4);
     private final JTextField getRefersTo = new JTextField(10);
     private final JButton getBtn = new JButton("GET");
+    // limit=<n> fetches the board a page at a time, stream has it sent in parts
+    private final JTextField getLimit = new JTextField(4);
+    private final JCheckBox streamBox = new JCheckBox("stream");
+    private final JButton nextPageBtn = new JButton("Next Page");
+    private volatile String nextCursor;
     private final JButton getPinsBtn = new JButton("GET PINS");
     private final JButton refreshBtn = new JButton("Refresh (GET + PINS)");
 
@@ -55,11 +69,10 @@ public class ClientGUI extends JFrame {
     private final JButton clearBtn = new JButton("CLEAR");
     private final JButton shakeBtn = new JButton("SHAKE");
 
-    // Networking
-    private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
-    private final Object ioLock = new Object();
+    // Networking: the command connection belongs to one worker thread, see IoWorker
+    private IoWorker worker;
+    // the DATA INIT colors, which binary NOTES frames refer to by position
+    private volatile String[] colorTable = new String[0];
 
     public ClientGUI() {
         super("CP372 Bulletin Board Client (Visual Notes + Pins)");
@@ -78,6 +91,8 @@ public class ClientGUI extends JFrame {
         top.add(connectBtn);
         top.add(disconnectBtn);
         top.add(autoRefreshBox);
+        top.add(binaryBox);
+        top.add(compressBox);
 
         disconnectBtn.setEnabled(false);
 
@@ -105,12 +120,17 @@ public class ClientGUI extends JFrame {
         getPanel.add(getContainsY);
         getPanel.add(new JLabel("refersTo="));
         getPanel.add(getRefersTo);
+        getPanel.add(new JLabel("limit="));
+        getPanel.add(getLimit);
+        getPanel.add(streamBox);
         getPanel.add(getBtn);
+        getPanel.add(nextPageBtn);
         getPanel.add(exitFilterBtn);
         getPanel.add(getPinsBtn);
         getPanel.add(refreshBtn);
 
         exitFilterBtn.setEnabled(false);
+        nextPageBtn.setEnabled(false);
 
         // PIN panel
         JPanel pinPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -159,16 +179,28 @@ public class ClientGUI extends JFrame {
         disconnectBtn.addActionListener(e -> disconnect());
 
         postBtn.addActionListener(e -> doPost());
-        getPinsBtn.addActionListener(e -> sendAndHandleAsync("GET PINS", true));
-        refreshBtn.addActionListener(e -> refreshBoth(true));
+        getPinsBtn.addActionListener(e -> send("GET PINS", true));
+        refreshBtn.addActionListener(e -> {
+            if (isLive()) {
+                log("CLIENT: Resubscribing for a fresh board snapshot.");
+                startLiveUpdates();
+            } else {
+                refreshBoth(true);
+            }
+        });
+        autoRefreshBox.addActionListener(e -> {
+            if (autoRefreshBox.isSelected()) startLiveUpdates();
+            else stopLiveUpdates();
+        });
         getBtn.addActionListener(e -> doGet());
+        nextPageBtn.addActionListener(e -> doNextPage());
         exitFilterBtn.addActionListener(e -> exitFilterMode());
 
         pinBtn.addActionListener(e -> doPin());
         unpinBtn.addActionListener(e -> doUnpin());
 
-        clearBtn.addActionListener(e -> { sendAndHandleAsync("CLEAR", true); refreshBoth(true); });
-        shakeBtn.addActionListener(e -> { sendAndHandleAsync("SHAKE", true); refreshBoth(true); });
+        clearBtn.addActionListener(e -> { send("CLEAR", true); refreshUnlessLive(true); });
+        shakeBtn.addActionListener(e -> { send("SHAKE", true); refreshUnlessLive(true); });
 
         setConnectedUI(false);
 
@@ -190,8 +222,11 @@ public class ClientGUI extends JFrame {
         clearBtn.setEnabled(connected);
         shakeBtn.setEnabled(connected);
         autoRefreshBox.setEnabled(connected);
+        binaryBox.setEnabled(!connected);
+        compressBox.setEnabled(!connected);
 
         exitFilterBtn.setEnabled(connected && filterLock);
+        nextPageBtn.setEnabled(connected && nextCursor != null);
     }
 
     private void log(String s) {
@@ -199,6 +234,7 @@ public class ClientGUI extends JFrame {
         outputArea.setCaretPosition(outputArea.getDocument().getLength());
     }
 
+    // the worker connects, so a slow or unreachable server never stalls the EDT
     private void connect() {
         String host = hostField.getText().trim();
         int port;
@@ -209,108 +245,440 @@ public class ClientGUI extends JFrame {
             return;
         }
 
-        try {
-            socket = new Socket(host, port);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+        connectBtn.setEnabled(false);
+        binaryBox.setEnabled(false);
+        compressBox.setEnabled(false);
+        log("CLIENT: Connecting to " + host + ":" + port + "...");
 
-            String init = in.readLine();
-            if (init != null) {
-                log("SERVER: " + init);
-                handleInit(init);
-            }
+        worker = new IoWorker(host, port, compressBox.isSelected(), binaryBox.isSelected());
+        worker.start();
+    }
 
-            filterLock = false;
-            lockedGetCommand = "GET";
-            exitFilterBtn.setEnabled(false);
+    // runs on the EDT once the worker has read DATA INIT and negotiated
+    private void connected(IoWorker w) {
+        if (worker != w) return;
 
-            setConnectedUI(true);
-            log("CLIENT: Connected.");
+        filterLock = false;
+        lockedGetCommand = "GET";
+        exitFilterBtn.setEnabled(false);
+        nextCursor = null;
 
-            startAutoRefresh();
-            refreshBoth(false);
+        setConnectedUI(true);
+        log("CLIENT: Connected.");
 
-        } catch (IOException ex) {
-            log("CLIENT: Connection failed: " + ex.getMessage());
-            cleanup();
-            setConnectedUI(false);
-        }
+        startLiveUpdates();
+        refreshUnlessLive(false);
+    }
+
+    // runs on the EDT when the worker could not connect or its connection broke
+    private void connectionLost(IoWorker w, String why) {
+        if (worker != w) return;
+        worker = null;
+        stopLiveUpdates();
+        filterLock = false;
+        lockedGetCommand = "GET";
+        nextCursor = null;
+
+        setConnectedUI(false);
+        log("CLIENT: " + why);
     }
 
     private void disconnect() {
-        stopAutoRefresh();
+        stopLiveUpdates();
         filterLock = false;
         lockedGetCommand = "GET";
         exitFilterBtn.setEnabled(false);
+        nextCursor = null;
 
-        sendAndHandleAsync("DISCONNECT", true);
-        cleanup();
+        // DISCONNECT goes out after whatever is already queued, then the worker closes the socket
+        IoWorker w = worker;
+        worker = null;
+        if (w != null) w.finish();
         setConnectedUI(false);
         log("CLIENT: Disconnected.");
     }
 
-    private void startAutoRefresh() {
-        stopAutoRefresh();
-        autoRefreshTimer = new Timer(1000, e -> {
-            if (autoRefreshBox.isSelected() && !filterLock) {
-                // silent polling: NO LOG SPAM
-                refreshBoth(false);
+    // Opens the subscription connection. The server answers SUBSCRIBE with a DATA NOTES /
+    // DATA PINS snapshot and then pushes EVENT lines, which are applied to the board in order.
+    private void startLiveUpdates() {
+        stopLiveUpdates();
+        IoWorker w = worker;
+        if (w == null || !autoRefreshBox.isSelected() || filterLock) return;
+
+        // connected on the reader thread too; closing the socket early aborts that
+        Socket s = new Socket();
+        subSocket = s;
+        boolean compress = compressBox.isSelected();
+        Thread reader = new Thread(() -> readPushed(s, w.host, w.port, compress), "live-updates");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void stopLiveUpdates() {
+        Socket s = subSocket;
+        subSocket = null;
+        try { if (s != null) s.close(); } catch (IOException ignored) {}
+    }
+
+    private boolean isLive() {
+        return subSocket != null;
+    }
+
+    private void readPushed(Socket s, String host, int port, boolean compress) {
+        String why;
+        try {
+            s.connect(new InetSocketAddress(host, port));
+            BufferedReader subIn = new BufferedReader(new InputStreamReader(s.getInputStream()));
+            PrintWriter subOut = new PrintWriter(s.getOutputStream(), true);
+
+            subIn.readLine(); // DATA INIT, already applied from the command connection
+            if (compress) {
+                // the snapshot SUBSCRIBE starts with is the largest thing this connection gets
+                subOut.println("COMPRESS DEFLATE");
+                if ("OK".equals(subIn.readLine())) {
+                    subIn = new BufferedReader(new InputStreamReader(new Compression.InflatingInputStream(s.getInputStream())));
+                }
+            }
+            subOut.println("SUBSCRIBE");
+
+            String line;
+            while ((line = subIn.readLine()) != null) {
+                String pushed = line;
+                SwingUtilities.invokeLater(() -> {
+                    if (subSocket == s) applyPushed(pushed);
+                });
+            }
+            why = "Live updates stopped by server.";
+        } catch (IOException ex) {
+            why = "Live updates unavailable: " + ex.getMessage();
+        }
+        String reason = why;
+        SwingUtilities.invokeLater(() -> {
+            if (subSocket == s) {
+                subSocket = null;
+                log("CLIENT: " + reason);
+                refreshUnlessLive(false);
             }
         });
-        autoRefreshTimer.start();
     }
 
-    private void stopAutoRefresh() {
-        if (autoRefreshTimer != null) {
-            autoRefreshTimer.stop();
-            autoRefreshTimer = null;
+    // runs on the EDT
+    private void applyPushed(String line) {
+        if (line.startsWith("DATA NOTES")) {
+            boardPanel.setNotes(parseDataNotes(line));
+        } else if (line.startsWith("DATA PINS")) {
+            boardPanel.setPins(parseDataPins(line));
+        } else if (line.startsWith("EVENT ")) {
+            applyEvent(line);
         }
     }
 
-    private void cleanup() {
-        try { if (socket != null) socket.close(); } catch (IOException ignored) {}
-        socket = null;
-        in = null;
-        out = null;
+    private void applyEvent(String line) {
+        String[] p = line.split(" ");
+        switch (p[1]) {
+            case "POST" -> {
+                // EVENT POST x y color msgLen message (message may contain spaces)
+                int msgStart = nthSpace(line, 6) + 1;
+                String msg = msgStart <= 0 ? "" : line.substring(msgStart);
+                boardPanel.addNote(new BoardPanel.NoteView(
+                        Integer.parseInt(p[2]), Integer.parseInt(p[3]), p[4], 0, msg));
+            }
+            case "PIN", "UNPIN" -> {
+                // EVENT PIN|UNPIN x y k x1 y1 ... : the notes whose pinned state flipped
+                boolean pinned = p[1].equals("PIN");
+                Point at = new Point(Integer.parseInt(p[2]), Integer.parseInt(p[3]));
+                if (pinned) boardPanel.addPin(at);
+                else boardPanel.removePin(at);
+
+                int k = Integer.parseInt(p[4]);
+                for (int i = 0; i < k; i++) {
+                    boardPanel.setPinned(Integer.parseInt(p[5 + 2 * i]), Integer.parseInt(p[6 + 2 * i]), pinned ? 1 : 0);
+                }
+            }
+            case "SHAKE" -> boardPanel.removeUnpinned();
+            case "CLEAR" -> boardPanel.clearAll();
+            default -> { }
+        }
+    }
+
+    private static int nthSpace(String s, int n) {
+        int idx = -1;
+        for (int i = 0; i < n; i++) {
+            idx = s.indexOf(' ', idx + 1);
+            if (idx < 0) return -1;
+        }
+        return idx;
+    }
+
+    // with live updates on, the subscription already keeps the board current
+    private void refreshUnlessLive(boolean logRequests) {
+        if (!isLive()) refreshBoth(logRequests);
     }
 
     private void refreshBoth(boolean logRequests) {
+        if (worker == null) return;
         String getCmd = filterLock ? lockedGetCommand : "GET";
-        sendAndHandleAsync(getCmd, logRequests);
-        sendAndHandleAsync("GET PINS", logRequests);
+        worker.submit(new Request(getCmd, logRequests, true));
+        worker.submit(new Request("GET PINS", logRequests, true));
+    }
+
+    // queued behind everything sent before it; nothing happens while disconnected
+    private void send(String cmd, boolean logRequests) {
+        if (worker != null) worker.submit(new Request(cmd, logRequests, false));
+    }
+
+    private void logLater(String s) {
+        SwingUtilities.invokeLater(() -> log(s));
     }
 
-    private void sendAndHandleAsync(String cmd, boolean logRequests) {
-        new Thread(() -> sendAndHandle(cmd, logRequests)).start();
+    // one queued command; a refresh is a GET or GET PINS that only redraws the board
+    private static final class Request {
+        final String cmd;
+        final boolean logRequests;
+        final boolean refresh;
+
+        Request(String cmd, boolean logRequests, boolean refresh) {
+            this.cmd = cmd;
+            this.logRequests = logRequests;
+            this.refresh = refresh;
+        }
     }
 
-    private void sendAndHandle(String cmd, boolean logRequests) {
-        if (out == null || in == null) return;
+    // The command connection and the only thread that touches it. Requests go out one at
+    // a time in the order they were queued, so a GET always sees the POST queued before
+    // it. Results reach the EDT through invokeLater, which keeps that order as well.
+    private final class IoWorker extends Thread {
+        final String host;
+        final int port;
+        private final boolean compress;
+        private final boolean binary;
+
+        private final ArrayDeque<Request> queue = new ArrayDeque<>();
+        private boolean finishing = false;
+
+        private Socket socket;
+        private BufferedReader in;
+        private PrintWriter out;
+        // what the server sends, inflated once COMPRESS DEFLATE was accepted
+        private InputStream serverIn;
+        // set once PROTOCOL BINARY was accepted; requests and responses are then frames
+        private InputStream binIn;
+        private OutputStream binOut;
+
+        IoWorker(String host, int port, boolean compress, boolean binary) {
+            super("client-io");
+            setDaemon(true);
+            this.host = host;
+            this.port = port;
+            this.compress = compress;
+            this.binary = binary;
+        }
+
+        // A refresh already waiting after the last other request would fetch the same
+        // thing, so it is queued only once. One waiting before a POST is left alone: it
+        // runs too early to show what the POST did.
+        void submit(Request r) {
+            synchronized (queue) {
+                if (finishing) return;
+                if (r.refresh) {
+                    Iterator<Request> it = queue.descendingIterator();
+                    while (it.hasNext()) {
+                        Request q = it.next();
+                        if (!q.refresh) break;
+                        if (q.cmd.equals(r.cmd)) return;
+                    }
+                }
+                queue.add(r);
+                queue.notify();
+            }
+        }
+
+        void finish() {
+            synchronized (queue) {
+                queue.add(new Request("DISCONNECT", true, false));
+                finishing = true;
+                queue.notify();
+            }
+        }
+
+        // null once finish() was called and everything before it has run
+        private Request take() throws InterruptedException {
+            synchronized (queue) {
+                while (queue.isEmpty() && !finishing) queue.wait();
+                return queue.poll();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                open();
+            } catch (IOException ex) {
+                lost("Connection failed: " + ex.getMessage());
+                close();
+                return;
+            }
+            SwingUtilities.invokeLater(() -> connected(this));
 
-        synchronized (ioLock) {
             try {
-                if (logRequests) log("YOU> " + cmd);
+                Request r;
+                while ((r = take()) != null) handle(r);
+            } catch (IOException ex) {
+                lost("Connection lost: " + ex.getMessage());
+            } catch (RuntimeException ex) {
+                // a response this client could not read; what follows it can't be trusted
+                // to line up with the requests any more, so the connection is given up
+                lost("Connection lost: unreadable response: " + ex);
+            } catch (InterruptedException ignored) {
+            } finally {
+                close();
+            }
+        }
+
+        private void lost(String why) {
+            SwingUtilities.invokeLater(() -> connectionLost(this, why));
+        }
+
+        private void close() {
+            try { if (socket != null) socket.close(); } catch (IOException ignored) {}
+        }
+
+        private void open() throws IOException {
+            socket = new Socket(host, port);
+            serverIn = socket.getInputStream();
+            in = new BufferedReader(new InputStreamReader(serverIn));
+            out = new PrintWriter(socket.getOutputStream(), true);
+
+            String init = in.readLine();
+            if (init != null) {
+                logLater("SERVER: " + init);
+                handleInit(init);
+            }
+            if (compress) negotiateCompression();
+            if (binary) negotiateBinary();
+        }
+
+        // nothing else is in flight yet, so the reply to COMPRESS is the next line; it is
+        // still plain, everything after it arrives as Compression records
+        private void negotiateCompression() throws IOException {
+            out.println("COMPRESS DEFLATE");
+            String resp = in.readLine();
+            if ("OK".equals(resp)) {
+                serverIn = new Compression.InflatingInputStream(socket.getInputStream());
+                in = new BufferedReader(new InputStreamReader(serverIn));
+                logLater("CLIENT: Using compression.");
+            } else {
+                logLater("CLIENT: Compression unavailable: " + resp);
+            }
+        }
+
+        // nothing else is in flight yet, so the reply to PROTOCOL is the next line
+        private void negotiateBinary() throws IOException {
+            out.println("PROTOCOL BINARY");
+            String resp = in.readLine();
+            if ("OK".equals(resp)) {
+                binIn = new BufferedInputStream(serverIn);
+                binOut = new BufferedOutputStream(socket.getOutputStream());
+                logLater("CLIENT: Using binary protocol.");
+            } else {
+                logLater("CLIENT: Binary protocol unavailable, using text: " + resp);
+            }
+        }
+
+        // responses are parsed here and applied on the EDT, which decides whether the
+        // live subscription or this response owns the view
+        private void handle(Request r) throws IOException {
+            String cmd = r.cmd;
+            boolean logRequests = r.logRequests;
+            if (logRequests) logLater("YOU> " + cmd);
+
+            String resp;
+            if (binOut != null) {
+                BinaryProtocol.writeRequest(binOut, cmd);
+                byte[] frame = BinaryProtocol.readFrame(binIn);
+                if (frame == null) throw new EOFException("closed by server");
+
+                BinaryProtocol.Cursor c = new BinaryProtocol.Cursor(frame);
+                if (c.get() == BinaryProtocol.NOTES) {
+                    List<BoardPanel.NoteView> notes = decodeNotes(c, colorTable);
+                    SwingUtilities.invokeLater(() -> {
+                        if (logRequests) log("SERVER: DATA NOTES " + notes.size() + " (binary)");
+                        if (!isLive() || filterLock) boardPanel.setNotes(notes);
+                    });
+                    return;
+                }
+                resp = c.rest();
+            } else {
                 out.println(cmd);
+                resp = in.readLine();
+                if (resp == null) throw new EOFException("closed by server");
+            }
 
-                String resp = in.readLine();
-                if (resp == null) return;
+            // a streamed GET goes on up to its END line, which has to be read either way
+            if (resp.startsWith("DATA NOTES PART") || resp.startsWith("DATA NOTES END")) {
+                readNoteStream(resp, logRequests);
+                return;
+            }
 
+            if (resp.startsWith("DATA INIT")) handleInit(resp);
+            List<BoardPanel.NoteView> notes = resp.startsWith("DATA NOTES") ? parseDataNotes(resp) : null;
+            List<Point> pins = resp.startsWith("DATA PINS") ? parseDataPins(resp) : null;
+            String response = resp;
+            SwingUtilities.invokeLater(() -> {
                 // ✅ ONLY log server responses for manual actions (logRequests=true)
                 // Polling uses logRequests=false so it updates the board without spamming output.
-                if (logRequests) log("SERVER: " + resp);
-
-                // Always update visuals regardless of logging
-                if (resp.startsWith("DATA INIT")) {
-                    handleInit(resp);
-                } else if (resp.startsWith("DATA NOTES")) {
-                    boardPanel.setNotes(parseDataNotes(resp));
-                } else if (resp.startsWith("DATA PINS")) {
-                    boardPanel.setPins(parseDataPins(resp));
+                if (logRequests) log("SERVER: " + response);
+
+                // Update visuals regardless of logging, unless the live subscription owns the view
+                if (isLive() && !filterLock) return;
+                if (response.startsWith("DATA NOTES PAGE")) {
+                    // the first page replaces the board, later ones add to it
+                    if (cmd.contains(" cursor=")) boardPanel.addNotes(notes);
+                    else boardPanel.setNotes(notes);
+                    String next = response.split(" ", 5)[3];
+                    nextCursor = next.equals("END") ? null : next;
+                    nextPageBtn.setEnabled(nextCursor != null);
+                } else if (notes != null) {
+                    boardPanel.setNotes(notes);
+                } else if (pins != null) {
+                    boardPanel.setPins(pins);
                 }
+            });
+        }
 
-            } catch (IOException ex) {
-                if (logRequests) log("CLIENT: IO error: " + ex.getMessage());
+        // the next response line; on a binary connection it arrives as a TEXT frame
+        private String readLine() throws IOException {
+            if (binIn == null) return in.readLine();
+            byte[] frame = BinaryProtocol.readFrame(binIn);
+            if (frame == null) return null;
+            BinaryProtocol.Cursor c = new BinaryProtocol.Cursor(frame);
+            c.get();
+            return c.rest();
+        }
+
+        // DATA NOTES PART lines up to DATA NOTES END; each part is drawn as soon as it arrives
+        private void readNoteStream(String line, boolean logRequests) throws IOException {
+            boolean first = true;
+            while (line.startsWith("DATA NOTES PART")) {
+                List<BoardPanel.NoteView> part = parseDataNotes(line);
+                boolean replace = first;
+                SwingUtilities.invokeLater(() -> {
+                    if (isLive() && !filterLock) return;
+                    if (replace) boardPanel.setNotes(part);
+                    else boardPanel.addNotes(part);
+                });
+                first = false;
+                line = readLine();
+                if (line == null) throw new EOFException("closed by server");
             }
+
+            // nothing matched: END without any part
+            boolean empty = first;
+            String end = line;
+            SwingUtilities.invokeLater(() -> {
+                if (empty && (!isLive() || filterLock)) boardPanel.setNotes(new ArrayList<>());
+                if (logRequests) log("SERVER: " + end);
+            });
         }
     }
 
@@ -335,14 +703,25 @@ public class ClientGUI extends JFrame {
 
         if (!ref.isEmpty()) cmd.append(" ").append("refersTo=").append(ref);
 
+        // a page is only part of the board, so paging counts as a filter; stream does not
+        String limit = getLimit.getText().trim();
+        if (!limit.isEmpty() && streamBox.isSelected()) {
+            log("CLIENT: GET limit and stream cannot be combined.");
+            return;
+        }
+        if (!limit.isEmpty()) cmd.append(" ").append("limit=").append(limit);
+
         String getCmd = cmd.toString();
         boolean hasFilters = !getCmd.equals("GET");
+        nextCursor = null;
+        nextPageBtn.setEnabled(false);
 
         if (hasFilters) {
             filterLock = true;
             lockedGetCommand = getCmd;
             exitFilterBtn.setEnabled(true);
-            log("CLIENT: Filter mode ON (polling paused). Click 'Exit Filter' to resume live updates.");
+            stopLiveUpdates();
+            log("CLIENT: Filter mode ON (live updates paused). Click 'Exit Filter' to resume live updates.");
         } else {
             if (filterLock) {
                 exitFilterMode();
@@ -350,16 +729,26 @@ public class ClientGUI extends JFrame {
             }
         }
 
-        sendAndHandleAsync(getCmd, true);
-        sendAndHandleAsync("GET PINS", false);
+        send(streamBox.isSelected() ? getCmd + " stream" : getCmd, true);
+        send("GET PINS", false);
+    }
+
+    private void doNextPage() {
+        String cursor = nextCursor;
+        if (!filterLock || cursor == null) return;
+        nextPageBtn.setEnabled(false);
+        send(lockedGetCommand + " cursor=" + cursor, true);
     }
 
     private void exitFilterMode() {
         filterLock = false;
         lockedGetCommand = "GET";
         exitFilterBtn.setEnabled(false);
-        log("CLIENT: Filter mode OFF (polling resumed).");
-        refreshBoth(true);
+        nextCursor = null;
+        nextPageBtn.setEnabled(false);
+        log("CLIENT: Filter mode OFF (live updates resumed).");
+        startLiveUpdates();
+        refreshUnlessLive(true);
     }
 
     private void doPost() {
@@ -371,8 +760,8 @@ public class ClientGUI extends JFrame {
             log("CLIENT: POST requires x y color message.");
             return;
         }
-        sendAndHandleAsync("POST " + x + " " + y + " " + c + " " + m, true);
-        refreshBoth(false);
+        send("POST " + x + " " + y + " " + c + " " + m, true);
+        refreshUnlessLive(false);
     }
 
     private void doPin() {
@@ -382,8 +771,8 @@ public class ClientGUI extends JFrame {
             log("CLIENT: PIN requires x and y.");
             return;
         }
-        sendAndHandleAsync("PIN " + x + " " + y, true);
-        refreshBoth(false);
+        send("PIN " + x + " " + y, true);
+        refreshUnlessLive(false);
     }
 
     private void doUnpin() {
@@ -393,12 +782,13 @@ public class ClientGUI extends JFrame {
             log("CLIENT: UNPIN requires x and y.");
             return;
         }
-        sendAndHandleAsync("UNPIN " + x + " " + y, true);
-        refreshBoth(false);
+        send("UNPIN " + x + " " + y, true);
+        refreshUnlessLive(false);
     }
 
     // ---- parsing ----
 
+    // runs on the I/O worker, which needs the colors before it decodes any NOTES frame
     private void handleInit(String initLine) {
         try {
             String[] p = initLine.trim().split("\\s+");
@@ -407,12 +797,18 @@ public class ClientGUI extends JFrame {
                 int bh = Integer.parseInt(p[3]);
                 int nw = Integer.parseInt(p[4]);
                 int nh = Integer.parseInt(p[5]);
-                boardPanel.setBoardConfig(bw, bh, nw, nh);
+                SwingUtilities.invokeLater(() -> boardPanel.setBoardConfig(bw, bh, nw, nh));
+
+                // binary NOTES frames refer to colors by their position in this list
+                int k = Integer.parseInt(p[6]);
+                String[] colors = new String[k];
+                for (int i = 0; i < k && 7 + i < p.length; i++) colors[i] = p[7 + i];
+                colorTable = colors;
             }
         } catch (Exception ignored) {}
     }
 
-    private List<Point> parseDataPins(String resp) {
+    static List<Point> parseDataPins(String resp) {
         List<Point> list = new ArrayList<>();
         String[] parts = resp.trim().split("\\s+");
         if (parts.length < 3) return list;
@@ -428,38 +824,81 @@ public class ClientGUI extends JFrame {
         return list;
     }
 
-    private List<BoardPanel.NoteView> parseDataNotes(String resp) {
+    static List<BoardPanel.NoteView> parseDataNotes(String resp) {
         List<BoardPanel.NoteView> list = new ArrayList<>();
-        String[] parts = resp.trim().split("\\s+");
-        if (parts.length < 3) return list;
-        if (!parts[0].equals("DATA") || !parts[1].equals("NOTES")) return list;
+        LineReader r = new LineReader(resp);
+        if (!"DATA".equals(r.next()) || !"NOTES".equals(r.next())) return list;
+
+        // DATA NOTES PAGE <next> <k> ... and DATA NOTES PART <k> ... carry notes the same way
+        String k = r.next();
+        if ("PAGE".equals(k)) {
+            r.next();
+            k = r.next();
+        } else if ("PART".equals(k)) {
+            k = r.next();
+        }
+        if (k == null) return list;
+
+        int n = Integer.parseInt(k);
+        for (int noteIdx = 0; noteIdx < n; noteIdx++) {
+            String x = r.next();
+            String y = r.next();
+            String color = r.next();
+            String pinned = r.next();
+            String msgLen = r.next();
+            if (msgLen == null) break;
+
+            // the message is taken by its length, it may hold any number of spaces
+            String msg = r.take(Integer.parseInt(msgLen));
+            if (msg == null) break;
+
+            list.add(new BoardPanel.NoteView(Integer.parseInt(x), Integer.parseInt(y), color,
+                    Integer.parseInt(pinned), msg));
+        }
 
-        int k = Integer.parseInt(parts[2]);
-        int i = 3;
+        return list;
+    }
 
-        for (int noteIdx = 0; noteIdx < k; noteIdx++) {
-            if (i + 5 > parts.length) break;
+    // walks a response line: fields separated by single spaces, and messages by length
+    private static final class LineReader {
+        private final String line;
+        private int pos = 0;
 
-            int x = Integer.parseInt(parts[i++]);
-            int y = Integer.parseInt(parts[i++]);
-            String color = parts[i++];
-            int pinned = Integer.parseInt(parts[i++]);
-            int msgLen = Integer.parseInt(parts[i++]);
-
-            StringBuilder msg = new StringBuilder();
-            int chars = 0;
-
-            while (i < parts.length && chars < msgLen) {
-                String t = parts[i];
-                if (msg.length() > 0) { msg.append(" "); chars += 1; }
-                msg.append(t);
-                chars += t.length();
-                i++;
-            }
+        LineReader(String line) {
+            this.line = line;
+        }
 
-            list.add(new BoardPanel.NoteView(x, y, color, pinned, msg.toString()));
+        // the next field, null at the end of the line
+        String next() {
+            if (pos >= line.length()) return null;
+            int end = line.indexOf(' ', pos);
+            if (end < 0) end = line.length();
+            String field = line.substring(pos, end);
+            pos = end + 1;
+            return field;
         }
 
+        // the next n characters and the space after them, null if the line is shorter
+        String take(int n) {
+            if (n < 0 || pos + n > line.length()) return null;
+            String s = line.substring(pos, pos + n);
+            pos += n + 1;
+            return s;
+        }
+    }
+
+    // body of a binary NOTES frame, after its type byte
+    static List<BoardPanel.NoteView> decodeNotes(BinaryProtocol.Cursor c, String[] colors) {
+        int k = c.varint();
+        List<BoardPanel.NoteView> list = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) {
+            int x = c.varint();
+            int y = c.varint();
+            int color = c.varint();
+            int pinned = c.get();
+            String msg = c.utf8(c.varint());
+            list.add(new BoardPanel.NoteView(x, y, color < colors.length ? colors[color] : "?", pinned, msg));
+        }
         return list;
     }
 
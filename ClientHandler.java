@@ -1,220 +1,151 @@
-import java.io.BufferedReader;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 
-public class ClientHandler extends Thread{
+// Runnable so it can run on a platform thread or on a virtual thread from an executor
+public class ClientHandler implements Runnable{
+    // a subscriber this far behind is disconnected rather than buffered without bound
+    private static final int MAX_PENDING_EVENTS = 10000;
+    private static final int READ_BUFFER_SIZE = 8192;
+
     private final Socket socket;
-    private final Board board;
-    public ClientHandler(Socket socket, Board board){
+    private final RequestProcessor processor;
+    private final Semaphore admission;
+    private final ServerStats stats;
+
+    // SUBSCRIBE events, written by a pusher thread started on the first event
+    private final BlockingQueue<String> events = new ArrayBlockingQueue<>(MAX_PENDING_EVENTS);
+    private volatile StreamResponseWriter out;
+    private Thread pusher;
+    // guards pusher; push() takes it inside the board's commit section, so not a monitor
+    private final ReentrantLock pusherLock = new ReentrantLock();
+    // set by the event that found the queue full; the connection is going away then
+    private volatile boolean overflowed;
+
+    public ClientHandler(Socket socket, Board board, ServerStats stats, Semaphore admission){
         this.socket = socket;
-        this.board = board;
+        this.processor = new RequestProcessor(board, stats, this::push);
+        this.admission = admission;
+        this.stats = stats;
     }
 
     @Override
     public void run(){
+        stats.connectionOpened();
         try(
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            InputStream in = socket.getInputStream();
         ){
+            StreamResponseWriter out = new StreamResponseWriter(countingOutput(socket.getOutputStream()));
+            this.out = out;
 
-            out.println(buildInitLine());
-
-
-
-
-            String line;
-            while((line = in.readLine()) != null){
-                line = line.trim();
-                if(line.isEmpty()){
-                    out.println("ERROR INVALID_FORMAT Empty request");
-                    continue;
-                }
-
-                String[] parts = line.split("\\s+");
-                String command = parts[0].toUpperCase();
-
-                if(command.equals("DISCONNECT")){
-                    out.println("OK");
-                    break;
-                }
-                else if(command.equals("CLEAR")){
-                    board.clear();
-                    out.println("OK");
-                }
-                else if(command.equals("SHAKE")){
-                    board.shake();
-                    out.println("OK");
-                }
-                else if(command.equals("POST")){
-                    if(parts.length < 5){
-                        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "POST required x y color message"));
-                        continue;
-                    }
-
-                    try{
-                        int x = Integer.parseInt(parts[1]);
-                        int y = Integer.parseInt(parts[2]);
-                        String color = parts[3];
-
-                        int index = nthIndexOf(line, ' ', 4);
-                        if(index == -1 || index + 1 >= line.length()){
-                            out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "POST missing message"));
-                            continue;
-                        }
-                        String message = line.substring(index + 1);
-                        board.post(x, y, color, message);
-                        out.println(Protocol.ok());
-                    }
-                    catch(NumberFormatException e){
-                        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "x and y must be integers"));
-                    }
-                    catch(ProtocolException e){
-                        out.println(Protocol.error(e.getCode(), e.getMessage()));
-                    }
-                }
-
-                else if(command.equals("PIN")){
-                    if(parts.length != 3){
-                        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "PIN requires x y"));
-                        continue;
-                    }
-
-                    try{
-                        int x = Integer.parseInt(parts[1]);
-                        int y = Integer.parseInt(parts[2]);
-
-                        board.pin(x,y);
-                        out.println(Protocol.ok());
-                    }
-                    catch(NumberFormatException e){
-                        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "x and y must be integers"));
-                    }
-                    catch(ProtocolException e){
-                        out.println(Protocol.error(e.getCode(), e.getMessage()));
-                    }
-                    
-                }
-
-                else if(command.equals("UNPIN")){
-                    if(parts.length != 3){
-                        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "UNPIN requires x y"));
-                        continue;
-                    } 
+            out.println(processor.buildInitLine());
+            out.flush();
 
-                    try{
-                        int x = Integer.parseInt(parts[1]);
-                        int y = Integer.parseInt(parts[2]);
 
-                        board.unpin(x, y);
-                        out.println(Protocol.ok());
-                    }
-                    catch(NumberFormatException e){
-                        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "x and y must be integers"));
-                    }
-                    catch(ProtocolException e){
-                        out.println(Protocol.error(e.getCode(), e.getMessage()));
-                    }
-                }
 
-                else if(command.equals("GET")){
 
-                    if(parts.length == 2 && parts[1].equalsIgnoreCase("PINS")){
-                        out.println(board.getPinsResponse());
-                        continue;
-                    }
-                    
-                    String colorFilter = null;
-                    Integer containsX = null;
-                    Integer containsY = null;
-                    String refersTo = null;
-
-                    try{
-                        for(int i = 1; i < parts.length; i++){
-                            String tok = parts[i];
-
-                            if(tok.startsWith("color=")){
-                                colorFilter = tok.substring(6);
-                                if(colorFilter.isEmpty()){
-                                    out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "color filter missing value"));
-                                    break;
-                                }
-                            }
-                            else if(tok.startsWith("contains=")){
-                                String xStr = tok.substring(9);
-                                if(xStr.isEmpty()){
-                                    out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "contains filter missing x"));
-                                    break;
-                                }
-                                if(i + 1 >=parts.length){
-                                    out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "contains filter mssing y"));
-                                    break;
-                                }
-                                containsX = Integer.parseInt(xStr);
-                                containsY = Integer.parseInt(parts[i + 1]);
-                                i++;
-                            }
-                            else if(tok.startsWith("refersTo=")){
-                                refersTo = tok.substring(9);
-                                if(refersTo.isEmpty()){
-                                    out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "refersTo filter missing value"));
-                                    break;
-                                }
-                            }
-                            else{
-                                out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "Unknown GET filter"));
-                                break;
-                            }
-                        }
-                        out.println(board.getNotesResponse(colorFilter, containsX, containsY, refersTo));
-                    }
-                    catch(NumberFormatException e){
-                        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "contains requires integer x and y"));
+            // request bytes are framed and parsed in place, no String per line
+            byte[] buf = new byte[READ_BUFFER_SIZE];
+            RequestFramer framer = new RequestFramer();
+            boolean keepOpen = true;
+            int n;
+            while(keepOpen && (n = in.read(buf)) != -1){
+                stats.bytesIn(n);
+                for(int i = 0; i < n && keepOpen; i++){
+                    if(framer.accept(buf[i])){
+                        keepOpen = processor.handle(framer.bytes(), framer.length(), out);
+                        if(processor.isBinary()) framer.useFrames();
                     }
                 }
 
-                else{
-                    out.println("ERROR INVALID_COMMAND Unknown command");
-                }
-
+                // pipelined requests already read are answered first,
+                // then the whole batch of responses goes out in one flush
+                if(!keepOpen || in.available() == 0) out.flush();
+                if(out.checkError()) break;
+            }
+            // like readLine, a last line without terminator still counts
+            if(keepOpen && !out.checkError() && framer.hasPartialLine()){
+                processor.handle(framer.bytes(), framer.length(), out);
+                out.flush();
             }
 
         }catch (IOException e){
             System.out.println("ClientHandler IO error: " + e.getMessage());
         }finally{
+            processor.close();
+            stats.connectionClosed();
+            pusherLock.lock();
+            try{
+                if(pusher != null) pusher.interrupt();
+            }finally{
+                pusherLock.unlock();
+            }
+            if(out != null) out.release();
             try {
                 socket.close();
             }
             catch(IOException ignored){}
+            if(admission != null) admission.release();
         }
     }
 
-    private int nthIndexOf(String str, char ch, int n){
-        int count = 0;
-        for(int i = 0; i < str.length(); i++){
-            if(str.charAt(i) == ch){
-                count++;
-                if(count == n) return i;
+    // sits below the writer's buffer, so it sees one call per flushed chunk
+    private OutputStream countingOutput(OutputStream os){
+        return new FilterOutputStream(os){
+            @Override
+            public void write(int b) throws IOException{
+                out.write(b);
+                stats.bytesOut(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException{
+                out.write(b, off, len);
+                stats.bytesOut(len);
             }
+        };
+    }
+
+    // runs under the board lock: only queue the line, never write to the socket here
+    private void push(String line){
+        if(overflowed) return;
+        if(!events.offer(line)){
+            // once: stop the events at the source and let closing the socket end run()
+            overflowed = true;
+            System.out.println("ClientHandler: subscriber too slow, disconnecting");
+            processor.close();
+            try{ socket.close(); }catch(IOException ignored){}
+            return;
+        }
+        pusherLock.lock();
+        try{
+            if(pusher == null){
+                pusher = new Thread(this::pushEvents, "pusher-" + socket.getPort());
+                pusher.setDaemon(true);
+                pusher.start();
+            }
+        }finally{
+            pusherLock.unlock();
         }
-        return -1;
     }
 
-    private String buildInitLine(){
-        StringBuilder sb = new StringBuilder();
-        sb.append("DATA INIT ")
-        .append(board.getBoardWidth()).append(" ")
-        .append(board.getBoardHeight()).append(" ")
-        .append(board.getNoteWidth()).append(" ")
-        .append(board.getNoteHeight()).append(" ")
-        .append(board.getValidColors().size());
-
-        for(String c : board.getValidColors()) sb.append(" ").append(c);
-        return sb.toString();
+    private void pushEvents(){
+        try{
+            while(true){
+                // the writer locks per line, so event lines never interleave with responses
+                out.println(events.take());
+                String line;
+                while((line = events.poll()) != null) out.println(line);
+                out.flush();
+            }
+        }catch(InterruptedException ignored){}
     }
 }
-
-
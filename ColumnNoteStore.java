@@ -0,0 +1,130 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Structure of arrays: the id indexes parallel primitive columns, and every message
+// lives as UTF-8 in one shared byte arena. No per-note objects, so a note costs
+// about 32 bytes plus its message, and scans walk plain int arrays.
+// Removed messages stay in the arena as garbage until it makes up half of it,
+// then the live ones are copied into a fresh arena.
+public class ColumnNoteStore implements NoteStore{
+    private static final int MIN_COMPACT = 1 << 20;
+
+    private long[] seqs;
+    private int[] xs, ys, colors, pins;
+    // message bytes are arena[msgStart[id], msgStart[id] + msgLen[id]); msgLen -1 marks a free id
+    private int[] msgStart, msgLen;
+    private int used;
+    private final IntList free = new IntList();
+
+    private byte[] arena = new byte[1 << 12];
+    private int arenaUsed;
+    private int garbage;
+
+    public ColumnNoteStore(){
+        allocate(16);
+    }
+
+    private void allocate(int cap){
+        seqs = seqs == null ? new long[cap] : Arrays.copyOf(seqs, cap);
+        xs = xs == null ? new int[cap] : Arrays.copyOf(xs, cap);
+        ys = ys == null ? new int[cap] : Arrays.copyOf(ys, cap);
+        colors = colors == null ? new int[cap] : Arrays.copyOf(colors, cap);
+        pins = pins == null ? new int[cap] : Arrays.copyOf(pins, cap);
+        msgStart = msgStart == null ? new int[cap] : Arrays.copyOf(msgStart, cap);
+        msgLen = msgLen == null ? new int[cap] : Arrays.copyOf(msgLen, cap);
+    }
+
+    @Override
+    public int add(long seq, int x, int y, int color, String message){
+        int id;
+        if(!free.isEmpty()){
+            id = free.removeLast();
+        }else{
+            if(used == xs.length) allocate(used * 2);
+            id = used++;
+        }
+        byte[] m = message.getBytes(StandardCharsets.UTF_8);
+        if(arenaUsed + m.length > arena.length) growArena(m.length);
+
+        seqs[id] = seq;
+        xs[id] = x;
+        ys[id] = y;
+        colors[id] = color;
+        pins[id] = 0;
+        msgStart[id] = arenaUsed;
+        msgLen[id] = m.length;
+        System.arraycopy(m, 0, arena, arenaUsed, m.length);
+        arenaUsed += m.length;
+        return id;
+    }
+
+    private void growArena(int needed){
+        long cap = arena.length;
+        while(cap < (long) arenaUsed + needed) cap *= 2;
+        // arrays stop a little short of Integer.MAX_VALUE
+        if(cap > Integer.MAX_VALUE - 8){
+            if((long) arenaUsed + needed > Integer.MAX_VALUE - 8) throw new IllegalStateException("Message arena full");
+            cap = Integer.MAX_VALUE - 8;
+        }
+        arena = Arrays.copyOf(arena, (int) cap);
+    }
+
+    @Override
+    public void remove(int id){
+        garbage += msgLen[id];
+        msgLen[id] = -1;
+        free.add(id);
+        if(garbage > MIN_COMPACT && garbage * 2 > arenaUsed) compact();
+    }
+
+    // live messages move to a fresh arena in id order
+    private void compact(){
+        int live = arenaUsed - garbage;
+        byte[] next = new byte[Math.max(1 << 12, live + live / 2)];
+        int pos = 0;
+        for(int id = 0; id < used; id++){
+            if(msgLen[id] < 0) continue;
+            System.arraycopy(arena, msgStart[id], next, pos, msgLen[id]);
+            msgStart[id] = pos;
+            pos += msgLen[id];
+        }
+        arena = next;
+        arenaUsed = pos;
+        garbage = 0;
+    }
+
+    @Override
+    public void clear(){
+        used = 0;
+        free.clear();
+        arena = new byte[1 << 12];
+        arenaUsed = 0;
+        garbage = 0;
+    }
+
+    @Override public long seq(int id){ return seqs[id]; }
+    @Override public void setSeq(int id, long seq){ seqs[id] = seq; }
+    @Override public int x(int id){ return xs[id]; }
+    @Override public int y(int id){ return ys[id]; }
+    @Override public int color(int id){ return colors[id]; }
+    @Override public int pinCount(int id){ return pins[id]; }
+    @Override public void setPinCount(int id, int count){ pins[id] = count; }
+    @Override public boolean isPinned(int id){ return pins[id] > 0; }
+
+    @Override
+    public String message(int id){
+        return new String(arena, msgStart[id], msgLen[id], StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] messageUtf8(int id){
+        return Arrays.copyOfRange(arena, msgStart[id], msgStart[id] + msgLen[id]);
+    }
+
+    @Override
+    public boolean contains(int id, int px, int py, int noteWidth, int noteHeight){
+        int x = xs[id], y = ys[id];
+        return px >= x && px < x + noteWidth &&
+               py >= y && py < y + noteHeight;
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Optional compression of what the server sends, switched on by COMPRESS DEFLATE after
+// DATA INIT. The OK to it is still plain; from then on every message (a text line with its
+// terminator, or a frame after PROTOCOL BINARY) goes out as one record:
+//   record = type byte, varint payload length, payload
+//   RAW     the payload is the message itself
+//   DEFLATE the payload is the next piece of a raw deflate stream that runs for the rest of
+//           the connection, sync-flushed so it inflates to exactly the message
+// Messages below MIN_SIZE go RAW: a sync flush costs a few bytes and OK would only grow.
+// The stream keeps its window across messages, so repeated colors and coordinates from
+// earlier responses are cheap too. Requests are short and never compressed.
+public class Compression{
+    public static final byte RAW = 0;
+    public static final byte DEFLATE = 1;
+
+    public static final int MIN_SIZE = 256;
+    // see CompressionBench: the default level saves about a fifth more for four times the CPU
+    public static final int LEVEL = Deflater.BEST_SPEED;
+
+    // server side, one per connection; callers serialize encode()
+    public static class Encoder{
+        private final Deflater deflater;
+        private byte[] buf = new byte[8192];
+
+        public Encoder(){
+            this(LEVEL);
+        }
+
+        public Encoder(int level){
+            deflater = new Deflater(level, true);
+        }
+
+        public byte[] encode(byte[] message){
+            if(message.length < MIN_SIZE) return record(RAW, message, message.length);
+
+            deflater.setInput(message);
+            int len = 0;
+            while(true){
+                len += deflater.deflate(buf, len, buf.length - len, Deflater.SYNC_FLUSH);
+                // a full buffer may mean more output is pending
+                if(len < buf.length) break;
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            return record(DEFLATE, buf, len);
+        }
+
+        public void end(){
+            deflater.end();
+        }
+
+        private static byte[] record(byte type, byte[] payload, int len){
+            int prefix = 1;
+            for(int v = len >>> 7; v != 0; v >>>= 7) prefix++;
+
+            byte[] record = new byte[1 + prefix + len];
+            int p = 0;
+            record[p++] = type;
+            int v = len;
+            while((v & ~0x7f) != 0){
+                record[p++] = (byte)((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            record[p++] = (byte) v;
+            System.arraycopy(payload, 0, record, p, len);
+            return record;
+        }
+    }
+
+    // client side: the messages of a compressed connection as one plain byte stream, so a
+    // BufferedReader or BinaryProtocol.readFrame can sit on top of it unchanged
+    public static class InflatingInputStream extends InputStream{
+        private final InputStream in;
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] chunk = new byte[8192];
+        private final ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+
+        private byte[] message = new byte[0];
+        private int pos;
+
+        public InflatingInputStream(InputStream in){
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException{
+            while(pos == message.length){
+                if(!nextMessage()) return -1;
+            }
+            return message[pos++] & 0xff;
+        }
+
+        // never more than the rest of the current message, so a reader is not kept
+        // waiting for a record the server has not sent yet
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException{
+            if(len == 0) return 0;
+            while(pos == message.length){
+                if(!nextMessage()) return -1;
+            }
+            int n = Math.min(len, message.length - pos);
+            System.arraycopy(message, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException{
+            return message.length - pos;
+        }
+
+        @Override
+        public void close() throws IOException{
+            inflater.end();
+            in.close();
+        }
+
+        // false at end of stream
+        private boolean nextMessage() throws IOException{
+            int type = in.read();
+            if(type < 0) return false;
+            byte[] payload = BinaryProtocol.readFrame(in);
+            if(payload == null) throw new EOFException("Truncated record");
+
+            if(type == RAW){
+                message = payload;
+            }else if(type == DEFLATE){
+                inflater.setInput(payload);
+                inflated.reset();
+                try{
+                    int n;
+                    while((n = inflater.inflate(chunk)) > 0) inflated.write(chunk, 0, n);
+                }catch(DataFormatException e){
+                    throw new IOException("Corrupt compressed record: " + e.getMessage());
+                }
+                message = inflated.toByteArray();
+            }else{
+                throw new IOException("Unknown record type " + type);
+            }
+            pos = 0;
+            return true;
+        }
+    }
+}
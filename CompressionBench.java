@@ -0,0 +1,111 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+// What COMPRESS DEFLATE costs and saves on an unfiltered GET, as a text line and as a
+// binary NOTES frame, for a few board sizes and deflate levels: bytes on the wire, server
+// time to compress, client time to inflate, and the link speed below which compressing
+// is faster than sending the bytes as they are. "poll" is the same response sent again on
+// the same stream, as a client polling an unchanged board would get it.
+//   java CompressionBench [rounds] [notes...]
+public class CompressionBench{
+    private static final int[] LEVELS = { Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION };
+
+    public static void main(String[] args) throws Exception{
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int[] sizes = { 100, 2000, 20000, 100000 };
+        if(args.length > 1){
+            sizes = new int[args.length - 1];
+            for(int i = 1; i < args.length; i++) sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        // short responses never get to the deflater
+        byte[] ok = Protocol.encodeLine(Protocol.ok());
+        System.out.printf("OK: %d bytes plain, %d as a record%n%n", ok.length, new Compression.Encoder().encode(ok).length);
+
+        System.out.printf("%-8s %-7s %5s %11s %11s %7s %11s %11s %11s %12s%n",
+                "notes", "form", "level", "bytes", "deflated", "ratio", "poll", "deflate ms", "inflate ms", "faster <Mb/s");
+        for(int count : sizes){
+            Board board = board(count);
+            byte[] text = Protocol.encodeLine(board.getNotesResponse(null, null, null, null));
+            byte[] frame = board.getNotesFrame(null, null, null, null);
+            for(int level : LEVELS){
+                run(count, "text", level, text, rounds);
+                run(count, "binary", level, frame, rounds);
+            }
+        }
+    }
+
+    // a board like ProtocolBench's: short messages from a small vocabulary, four colors
+    private static Board board(int count){
+        Board board = new Board(100000, 100000, 10, 10, new LinkedHashSet<>(List.of("red", "green", "blue", "yellow")));
+        String[] colors = board.getValidColors().toArray(new String[0]);
+        Random rnd = new Random(42);
+        String[] words = {"meeting", "at", "noon", "lost", "cat", "café", "room 204", "sale", "bike", "call"};
+        List<String> posted = new ArrayList<>();
+        while(posted.size() < count){
+            StringBuilder msg = new StringBuilder();
+            int w = 1 + rnd.nextInt(5);
+            for(int i = 0; i < w; i++) msg.append(i == 0 ? "" : " ").append(words[rnd.nextInt(words.length)]);
+            try{
+                board.post(rnd.nextInt(99990), rnd.nextInt(99990), colors[rnd.nextInt(colors.length)], msg.toString());
+                posted.add(msg.toString());
+            }catch(ProtocolException ignored){}
+        }
+        // about one note in ten pinned
+        for(int i = 0; i < count / 10; i++){
+            try{
+                board.pin(rnd.nextInt(100000), rnd.nextInt(100000));
+            }catch(ProtocolException ignored){}
+        }
+        return board;
+    }
+
+    private static void run(int count, String form, int level, byte[] message, int rounds) throws Exception{
+        byte[] record = null;
+        byte[] poll = null;
+        long deflate = 0, inflate = 0;
+
+        // the first half of the rounds is warm-up
+        for(int r = 0; r < rounds * 2; r++){
+            Compression.Encoder encoder = new Compression.Encoder(level);
+            long t0 = System.nanoTime();
+            record = encoder.encode(message);
+            long t1 = System.nanoTime();
+            poll = encoder.encode(message);
+            encoder.end();
+
+            long t2 = System.nanoTime();
+            byte[] back = inflate(record);
+            long t3 = System.nanoTime();
+            if(back.length != message.length) throw new IllegalStateException("round trip lost bytes");
+            if(r >= rounds){
+                deflate += t1 - t0;
+                inflate += t3 - t2;
+            }
+        }
+
+        double deflateMs = deflate / 1e6 / rounds;
+        double inflateMs = inflate / 1e6 / rounds;
+        // bits saved per second of CPU spent on both ends
+        double breakEven = (message.length - record.length) * 8 / ((deflateMs + inflateMs) / 1e3) / 1e6;
+        System.out.printf("%-8d %-7s %5d %11d %11d %6.1f%% %11d %11.3f %11.3f %12.0f%n",
+                count, form, level, message.length, record.length, 100.0 * record.length / message.length,
+                poll.length, deflateMs, inflateMs, breakEven);
+    }
+
+    private static byte[] inflate(byte[] record) throws Exception{
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(InputStream in = new Compression.InflatingInputStream(new ByteArrayInputStream(record))){
+            byte[] buf = new byte[65536];
+            int n;
+            while((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// What --data-dir holds: snapshot-<n>.snap is the whole board as of the start of log
+// segment n, wal-<n>.log the mutations logged during segment n. Recovery loads the
+// newest readable snapshot and replays the segments from its n on. A new snapshot is
+// cut between two mutations by rotating the log, written in the background, and then
+// lets every older snapshot and segment go.
+public class DataDirectory{
+    private static final String LEGACY_LOG = "board.wal";
+
+    private final Path dir;
+    private final Board board;
+    private final WriteAheadLog log;
+    private Thread snapshotter;
+    // board version the newest snapshot was taken at or after
+    private long snapshotVersion;
+
+    private DataDirectory(Path dir, Board board, WriteAheadLog log){
+        this.dir = dir;
+        this.board = board;
+        this.log = log;
+        this.snapshotVersion = board.getVersion();
+    }
+
+    private static Path snapshotFile(Path dir, long n){
+        return dir.resolve(String.format("snapshot-%016d.snap", n));
+    }
+
+    // restores board from dir and attaches a log to it; board must still be empty
+    public static DataDirectory open(Path dir, Board board, WriteAheadLog.FsyncPolicy fsync, long fsyncIntervalMillis) throws IOException{
+        Files.createDirectories(dir);
+        List<Long> segments = numbered(dir, "wal-", ".log");
+        List<Long> snapshots = numbered(dir, "snapshot-", ".snap");
+
+        // a single board.wal from before segments existed is segment 0
+        Path legacy = dir.resolve(LEGACY_LOG);
+        if(segments.isEmpty() && Files.exists(legacy)){
+            Files.move(legacy, WriteAheadLog.segmentFile(dir, 0));
+            segments.add(0L);
+        }
+
+        long start = -1;
+        for(int i = snapshots.size() - 1; i >= 0 && start < 0; i--){
+            Path file = snapshotFile(dir, snapshots.get(i));
+            long t0 = System.nanoTime();
+            try{
+                BoardSnapshot snap = BoardSnapshot.read(file);
+                board.restore(snap);
+                start = snapshots.get(i);
+                System.out.println("Restored " + snap.xs.length + " notes from " + file.getFileName()
+                        + " in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+            }catch(IOException e){
+                System.out.println("Skipping unreadable snapshot " + file.getFileName() + ": " + e.getMessage());
+            }
+        }
+        if(start < 0){
+            start = segments.isEmpty() ? 0 : segments.get(0);
+            if(start > 0) System.out.println("WARNING: no usable snapshot and the log starts at segment " + start + ", earlier changes are lost");
+        }
+
+        long t0 = System.nanoTime();
+        long records = 0;
+        long last = start;
+        for(long n : segments){
+            if(n < start) continue;
+            records += WriteAheadLog.replay(WriteAheadLog.segmentFile(dir, n), board);
+            last = n;
+        }
+        System.out.println("Replayed " + records + " log records in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+
+        WriteAheadLog log = new WriteAheadLog(dir, last, fsync, fsyncIntervalMillis);
+        board.setLog(log);
+        return new DataDirectory(dir, board, log);
+    }
+
+    private static List<Long> numbered(Path dir, String prefix, String suffix) throws IOException{
+        List<Long> result = new ArrayList<>();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + suffix)){
+            for(Path f : files){
+                String name = f.getFileName().toString();
+                try{
+                    result.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                }catch(NumberFormatException ignored){}
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    public WriteAheadLog getLog(){
+        return log;
+    }
+
+    // writers are held up only while the board is copied, not while the file is written
+    public synchronized void snapshot() throws IOException{
+        long t0 = System.nanoTime();
+        long version = board.getVersion();
+        BoardSnapshot snap = board.snapshot(log::rotate);
+        long copied = System.nanoTime();
+        long n = snap.logSegment;
+
+        // the snapshot is only worth keeping once the segments it follows are complete
+        log.awaitRotation(n);
+        Path tmp = dir.resolve(String.format("snapshot-%016d.tmp", n));
+        snap.write(tmp);
+        Files.move(tmp, snapshotFile(dir, n), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        snapshotVersion = version;
+
+        for(long old : numbered(dir, "snapshot-", ".snap")){
+            if(old < n) Files.deleteIfExists(snapshotFile(dir, old));
+        }
+        for(long old : numbered(dir, "wal-", ".log")){
+            if(old < n) Files.deleteIfExists(WriteAheadLog.segmentFile(dir, old));
+        }
+
+        System.out.println("Snapshot " + n + ": " + snap.xs.length + " notes, board locked "
+                + (copied - t0) / 1_000_000 + " ms, written in " + (System.nanoTime() - copied) / 1_000_000 + " ms");
+    }
+
+    // the rename only survives a crash once the directory entry is on disk
+    private void syncDirectory(){
+        try(FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)){
+            ch.force(true);
+        }catch(IOException ignored){
+            // not every platform can open a directory
+        }
+    }
+
+    public void snapshotEvery(long seconds){
+        snapshotter = new Thread(() -> {
+            while(true){
+                try{
+                    Thread.sleep(seconds * 1000);
+                }catch(InterruptedException e){
+                    return;
+                }
+                // an idle board has nothing new to snapshot
+                if(board.getVersion() == snapshotVersion) continue;
+                try{
+                    snapshot();
+                }catch(IOException e){
+                    System.out.println("Snapshot failed: " + e.getMessage());
+                }
+            }
+        }, "snapshotter");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    public void close() throws IOException{
+        if(snapshotter != null) snapshotter.interrupt();
+        log.close();
+    }
+}
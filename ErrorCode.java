@@ -5,5 +5,7 @@ public enum ErrorCode{
     COLOR_NOT_SUPPORTED,
     COMPLETE_OVERLAP,
     NO_NOTE_AT_COORDINATE,
-    PIN_NOT_FOUND
+    PIN_NOT_FOUND,
+    BUSY,
+    BATCH_ABORTED
 }
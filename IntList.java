@@ -0,0 +1,74 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// growable list of primitive ints, for note ids in the board's indexes
+public class IntList{
+    private int[] values;
+    private int size;
+
+    public IntList(){
+        this(8);
+    }
+
+    public IntList(int capacity){
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    public int size(){ return size; }
+    public boolean isEmpty(){ return size == 0; }
+
+    public int get(int i){
+        if(i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+        return values[i];
+    }
+
+    public void set(int i, int v){
+        if(i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+        values[i] = v;
+    }
+
+    public void add(int v){
+        if(size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = v;
+    }
+
+    public void addAll(IntList other){
+        if(size + other.size > values.length) values = Arrays.copyOf(values, Math.max(size * 2, size + other.size));
+        System.arraycopy(other.values, 0, values, size, other.size);
+        size += other.size;
+    }
+
+    public int removeLast(){
+        return values[--size];
+    }
+
+    public int lastIndexOf(int v){
+        for(int i = size - 1; i >= 0; i--){
+            if(values[i] == v) return i;
+        }
+        return -1;
+    }
+
+    public void removeAt(int i){
+        if(i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+        System.arraycopy(values, i + 1, values, i, size - i - 1);
+        size--;
+    }
+
+    // keeps the order of what stays
+    public void removeIf(IntPredicate filter){
+        int kept = 0;
+        for(int i = 0; i < size; i++){
+            if(!filter.test(values[i])) values[kept++] = values[i];
+        }
+        size = kept;
+    }
+
+    public void clear(){
+        size = 0;
+    }
+
+    public int[] toArray(){
+        return Arrays.copyOf(values, size);
+    }
+}
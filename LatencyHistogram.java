@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of non-negative values (nanoseconds, usually): exact below 64,
+// above that 32 buckets per power of two, so any value is reported within about 3%.
+// Recording is a single atomic increment and safe from any number of threads.
+public class LatencyHistogram{
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int LINEAR = SUB * 2;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    private static int bucket(long v){
+        if(v < LINEAR) return (int) Math.max(0, v);
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return LINEAR + (shift - 1) * SUB + (int) (v >>> shift) - SUB;
+    }
+
+    // the largest value that lands in bucket b
+    private static long highest(int b){
+        if(b < LINEAR) return b;
+        int shift = (b - LINEAR) / SUB + 1;
+        long top = (b - LINEAR) % SUB + SUB;
+        return ((top + 1) << shift) - 1;
+    }
+
+    public void record(long value){
+        counts.incrementAndGet(bucket(value));
+        total.increment();
+        sum.add(value);
+    }
+
+    // For a caller that waits for each response before sending the next request: a value
+    // longer than the interval requests were meant to go out at also stands for the
+    // requests that should have been sent meanwhile, each having waited that much less.
+    // Without them a stall counts once instead of once per request it held up.
+    public void recordCorrected(long value, long expectedInterval){
+        record(value);
+        if(expectedInterval <= 0) return;
+        for(long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval){
+            record(missed);
+        }
+    }
+
+    public void add(LatencyHistogram other){
+        for(int b = 0; b < BUCKETS; b++){
+            long c = other.counts.get(b);
+            if(c != 0) counts.addAndGet(b, c);
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+    }
+
+    public void reset(){
+        for(int b = 0; b < BUCKETS; b++) counts.set(b, 0);
+        total.reset();
+        sum.reset();
+    }
+
+    public long count(){
+        return total.sum();
+    }
+
+    public double mean(){
+        long n = total.sum();
+        return n == 0 ? 0 : sum.sum() / (double) n;
+    }
+
+    // the value at or below which the given fraction (0..1) of the recorded values lie
+    public long percentile(double fraction){
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for(int b = 0; b < BUCKETS; b++){
+            snapshot[b] = counts.get(b);
+            n += snapshot[b];
+        }
+        if(n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for(int b = 0; b < BUCKETS; b++){
+            seen += snapshot[b];
+            if(seen >= rank) return highest(b);
+        }
+        return highest(BUCKETS - 1);
+    }
+
+    public long max(){
+        for(int b = BUCKETS - 1; b >= 0; b--){
+            if(counts.get(b) != 0) return highest(b);
+        }
+        return 0;
+    }
+}
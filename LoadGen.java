@@ -0,0 +1,384 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless load against a running Bboard over the text protocol: n connections, each
+// on its own thread, send a weighted mix of requests and time every response.
+//
+// Closed loop (default): each connection sends its next request as soon as the last
+// response is in. Latencies are corrected for coordinated omission with the mean
+// response time seen during warm-up as the interval requests are expected at, or with
+// --expected-interval when given.
+// Open loop (--rate): requests are due at a fixed total rate spread over the
+// connections, and latency counts from when a request was due, not when it could be
+// sent, so a stalled server is charged for the whole queue behind it.
+public class LoadGen{
+    private enum Op{ POST, PIN, UNPIN, GET, GETALL, PINS, SHAKE }
+    private static final Op[] OPS = Op.values();
+
+    private static void usageAndExit(){
+        System.out.println("Usage: java LoadGen [options] <host> <port>");
+        System.out.println("Options:");
+        System.out.println("  --connections=<n>   concurrent connections (default: 8)");
+        System.out.println("  --duration=<s>      measured seconds (default: 10)");
+        System.out.println("  --warmup=<s>        seconds of load before measuring (default: 2)");
+        System.out.println("  --rate=<n>          open loop at n requests/s over all connections");
+        System.out.println("                      (default: closed loop, as fast as responses come)");
+        System.out.println("  --expected-interval=<us>  closed loop: interval requests are expected at, for the");
+        System.out.println("                      coordinated omission correction (default: mean response time");
+        System.out.println("                      over the warm-up, so --warmup=0 needs it)");
+        System.out.println("  --mix=<op>=<w>,...  relative weights of post, pin, unpin, get (contains= a random");
+        System.out.println("                      point), getall, pins (GET PINS) and shake");
+        System.out.println("                      (default: post=20,pin=10,unpin=10,get=40,getall=5,pins=14,shake=1)");
+        System.out.println("  --seed=<n>          random seed (default: 1)");
+        System.out.println("  --idle=<n>          connections opened first and left idle for the run (default: 0)");
+        System.out.println("Example: java LoadGen --connections=32 --rate=20000 127.0.0.1 4554");
+        System.exit(1);
+    }
+
+    // what one connection needs to know about the board, from DATA INIT
+    private static final class BoardInfo{
+        final int width, height, noteWidth, noteHeight;
+        final String[] colors;
+
+        BoardInfo(String init){
+            String[] t = init.trim().split("\\s+");
+            if(t.length < 7 || !t[0].equals("DATA") || !t[1].equals("INIT")){
+                throw new IllegalStateException("unexpected handshake: " + init);
+            }
+            width = Integer.parseInt(t[2]);
+            height = Integer.parseInt(t[3]);
+            noteWidth = Integer.parseInt(t[4]);
+            noteHeight = Integer.parseInt(t[5]);
+            colors = Arrays.copyOfRange(t, 7, 7 + Integer.parseInt(t[6]));
+        }
+    }
+
+    // the latency histogram also holds the samples the correction adds, so requests
+    // are counted on their own
+    private static final class Stats{
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    public static void main(String[] args) throws Exception{
+        int connections = 8;
+        int duration = 10;
+        int warmup = 2;
+        double rate = 0;
+        double expectedUs = 0;
+        int[] weights = {20, 10, 10, 40, 5, 14, 1};
+        long seed = 1;
+        int idle = 0;
+
+        int a = 0;
+        for(; a < args.length && args[a].startsWith("--"); a++){
+            String arg = args[a];
+            int eq = arg.indexOf('=');
+            if(eq < 0) usageAndExit();
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            try{
+                if(name.equals("--connections")) connections = Integer.parseInt(value);
+                else if(name.equals("--duration")) duration = Integer.parseInt(value);
+                else if(name.equals("--warmup")) warmup = Integer.parseInt(value);
+                else if(name.equals("--rate")) rate = Double.parseDouble(value);
+                else if(name.equals("--expected-interval")) expectedUs = Double.parseDouble(value);
+                else if(name.equals("--mix")) weights = parseMix(value);
+                else if(name.equals("--seed")) seed = Long.parseLong(value);
+                else if(name.equals("--idle")) idle = Integer.parseInt(value);
+                else{
+                    System.out.println("ERROR: Unknown option " + name);
+                    usageAndExit();
+                }
+            }catch(IllegalArgumentException e){
+                System.out.println("ERROR: bad value for " + name + ": " + value);
+                usageAndExit();
+            }
+        }
+        if(args.length - a != 2 || connections < 1 || duration < 1 || warmup < 0 || rate < 0 || expectedUs < 0 || idle < 0) usageAndExit();
+        if(rate == 0 && warmup == 0 && expectedUs == 0){
+            // nothing to take the expected interval from, and correcting with 0 is no correction at all
+            System.out.println("ERROR: --warmup=0 in closed loop needs --expected-interval");
+            usageAndExit();
+        }
+        String host = args[a];
+        int port = Integer.parseInt(args[a + 1]);
+
+        // each holds a handler (thread, virtual thread or NIO connection) on the server
+        // that the measured connections have to share it with
+        List<ManualClient.Connection> idleConns = new ArrayList<>();
+        if(idle > 0){
+            long t0 = System.nanoTime();
+            for(int i = 0; i < idle; i++){
+                ManualClient.Connection c = new ManualClient.Connection(host, port);
+                if(c.getHandshake() == null || !c.getHandshake().startsWith("DATA INIT")){
+                    throw new IllegalStateException("idle connection " + i + " refused: " + c.getHandshake());
+                }
+                idleConns.add(c);
+            }
+            System.out.printf("%d idle connections opened in %d ms%n", idle, (System.nanoTime() - t0) / 1_000_000);
+        }
+
+        List<ManualClient.Connection> conns = new ArrayList<>();
+        for(int i = 0; i < connections; i++) conns.add(new ManualClient.Connection(host, port));
+        BoardInfo board = new BoardInfo(conns.get(0).getHandshake());
+
+        Stats[] stats = new Stats[OPS.length];
+        for(int i = 0; i < stats.length; i++) stats[i] = new Stats();
+        LatencyHistogram uncorrected = new LatencyHistogram();
+
+        // per connection, nanoseconds between requests in open loop
+        long interval = rate > 0 ? (long) (1e9 * connections / rate) : 0;
+        long start = System.nanoTime() + 100_000_000L;
+        long measureFrom = start + warmup * 1_000_000_000L;
+        long end = measureFrom + duration * 1_000_000_000L;
+
+        System.out.printf("%d connections, %s, %d s warm-up, %d s measured%n", connections,
+                rate > 0 ? String.format("open loop at %.0f req/s", rate) : "closed loop", warmup, duration);
+
+        CountDownLatch done = new CountDownLatch(connections);
+        Worker[] workers = new Worker[connections];
+        for(int c = 0; c < connections; c++){
+            Worker w = workers[c] = new Worker(conns.get(c), board, weights, new Random(seed * 1000 + c), stats,
+                    uncorrected, interval, (long) (expectedUs * 1e3), start, measureFrom, end, done);
+            Thread t = new Thread(w, "loadgen-" + c);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        for(ManualClient.Connection c : conns){
+            try{
+                c.request("DISCONNECT");
+                c.close();
+            }catch(IOException ignored){}
+        }
+        for(ManualClient.Connection c : idleConns){
+            try{
+                c.close();
+            }catch(IOException ignored){}
+        }
+
+        System.out.printf("%-8s %10s %8s %10s %10s %10s %10s %10s %10s%n",
+                "op", "count", "errors", "ops/s", "mean us", "p50 us", "p99 us", "p999 us", "max us");
+        LatencyHistogram all = new LatencyHistogram();
+        long requests = 0, errors = 0;
+        for(Op op : OPS){
+            Stats s = stats[op.ordinal()];
+            if(s.requests.sum() == 0) continue;
+            print(op.name().toLowerCase(), s.latency, s.requests.sum(), s.errors.sum(), duration);
+            all.add(s.latency);
+            requests += s.requests.sum();
+            errors += s.errors.sum();
+        }
+        print("all", all, requests, errors, duration);
+        print("raw", uncorrected, requests, errors, duration);
+        System.out.println("raw: every request once, from send to response, without the correction");
+        if(rate == 0) printCorrection(workers, expectedUs);
+    }
+
+    private static int[] parseMix(String spec){
+        int[] weights = new int[OPS.length];
+        for(String part : spec.split(",")){
+            int eq = part.indexOf('=');
+            if(eq < 0) throw new IllegalArgumentException(part);
+            Op op = Op.valueOf(part.substring(0, eq).trim().toUpperCase());
+            weights[op.ordinal()] = Integer.parseInt(part.substring(eq + 1).trim());
+            if(weights[op.ordinal()] < 0) throw new IllegalArgumentException(part);
+        }
+        if(Arrays.stream(weights).sum() == 0) throw new IllegalArgumentException(spec);
+        return weights;
+    }
+
+    // the interval the closed-loop correction actually used, which with the warm-up mean
+    // is each connection's own
+    private static void printCorrection(Worker[] workers, double expectedUs){
+        if(expectedUs > 0){
+            System.out.printf("corrected for coordinated omission at the given interval of %.1f us%n", expectedUs);
+            return;
+        }
+        long min = Long.MAX_VALUE, max = 0, sum = 0;
+        int used = 0;
+        for(Worker w : workers){
+            if(w.expected == 0) continue;
+            min = Math.min(min, w.expected);
+            max = Math.max(max, w.expected);
+            sum += w.expected;
+            used++;
+        }
+        if(used == 0){
+            System.out.println("NOT corrected for coordinated omission: no responses during the warm-up");
+            return;
+        }
+        System.out.printf("corrected for coordinated omission at the warm-up mean: %.1f us (%.1f..%.1f over connections)%n",
+                sum / 1e3 / used, min / 1e3, max / 1e3);
+        if(used < workers.length){
+            System.out.printf("NOT corrected on %d of %d connections: no responses during their warm-up%n",
+                    workers.length - used, workers.length);
+        }
+    }
+
+    private static void print(String name, LatencyHistogram h, long requests, long errors, int seconds){
+        System.out.printf("%-8s %10d %8d %10.0f %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, requests, errors,
+                requests / (double) seconds, h.mean() / 1e3, h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3,
+                h.percentile(0.999) / 1e3, h.max() / 1e3);
+    }
+
+    private static final class Worker implements Runnable{
+        private final ManualClient.Connection conn;
+        private final BoardInfo board;
+        private final int[] cumulative;
+        private final Random rnd;
+        private final Stats[] stats;
+        private final LatencyHistogram uncorrected;
+        private final long interval, start, measureFrom, end;
+        private final CountDownLatch done;
+        // closed loop: the interval requests are expected at, given or the warm-up mean;
+        // read by main once done has counted down
+        long expected;
+
+        // this connection's recent notes and the pins it placed, so PIN and UNPIN
+        // mostly hit something instead of only ever answering with an error
+        private final int[] noteXs = new int[1024], noteYs = new int[1024];
+        private int notes;
+        private final int[] pinXs = new int[1024], pinYs = new int[1024];
+        private int pins;
+        private long posted;
+
+        Worker(ManualClient.Connection conn, BoardInfo board, int[] weights, Random rnd, Stats[] stats,
+               LatencyHistogram uncorrected, long interval, long expected, long start, long measureFrom, long end,
+               CountDownLatch done){
+            this.conn = conn;
+            this.board = board;
+            this.cumulative = new int[weights.length];
+            for(int i = 0, sum = 0; i < weights.length; i++) cumulative[i] = sum += weights[i];
+            this.rnd = rnd;
+            this.stats = stats;
+            this.uncorrected = uncorrected;
+            this.interval = interval;
+            this.expected = expected;
+            this.start = start;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.done = done;
+        }
+
+        @Override
+        public void run(){
+            try{
+                loop();
+            }catch(IOException e){
+                System.out.println("connection failed: " + e.getMessage());
+            }finally{
+                done.countDown();
+            }
+        }
+
+        private void loop() throws IOException{
+            long due = start;
+            // closed loop: mean response time over the warm-up, unless the interval was given
+            long warmupTotal = 0, warmupCount = 0;
+            waitUntil(start);
+            while(true){
+                long now = System.nanoTime();
+                if(interval > 0){
+                    waitUntil(due);
+                    now = System.nanoTime();
+                }
+                if(now >= end) return;
+
+                Op op = pick();
+                long sent = System.nanoTime();
+                String response = conn.request(request(op));
+                long received = System.nanoTime();
+                if(response == null) throw new IOException("server closed the connection");
+                boolean ok = !response.startsWith("ERROR");
+                if(ok) remember(op);
+
+                if(sent < measureFrom){
+                    warmupTotal += received - sent;
+                    warmupCount++;
+                }else{
+                    if(expected == 0 && warmupCount > 0) expected = warmupTotal / warmupCount;
+                    Stats s = stats[op.ordinal()];
+                    if(interval > 0) s.latency.record(received - due);
+                    else s.latency.recordCorrected(received - sent, expected);
+                    uncorrected.record(received - sent);
+                    s.requests.increment();
+                    if(!ok) s.errors.increment();
+                }
+                due += interval;
+            }
+        }
+
+        private static void waitUntil(long deadline){
+            for(long left; (left = deadline - System.nanoTime()) > 0; ) LockSupport.parkNanos(left);
+        }
+
+        private Op pick(){
+            int r = rnd.nextInt(cumulative[cumulative.length - 1]);
+            for(int i = 0; i < cumulative.length; i++){
+                if(r < cumulative[i]) return OPS[i];
+            }
+            return OPS[OPS.length - 1];
+        }
+
+        private int randomX(){ return rnd.nextInt(board.width); }
+        private int randomY(){ return rnd.nextInt(board.height); }
+
+        // the last request's coordinates, for remember()
+        private int lastX, lastY;
+
+        private String request(Op op){
+            switch(op){
+                case POST:
+                    lastX = rnd.nextInt(Math.max(1, board.width - board.noteWidth + 1));
+                    lastY = rnd.nextInt(Math.max(1, board.height - board.noteHeight + 1));
+                    return "POST " + lastX + " " + lastY + " " + board.colors[rnd.nextInt(board.colors.length)]
+                            + " load " + Thread.currentThread().getName() + " " + (posted++);
+                case PIN:
+                    if(notes > 0){
+                        int i = rnd.nextInt(Math.min(notes, noteXs.length));
+                        lastX = noteXs[i] + rnd.nextInt(board.noteWidth);
+                        lastY = noteYs[i] + rnd.nextInt(board.noteHeight);
+                    }else{
+                        lastX = randomX();
+                        lastY = randomY();
+                    }
+                    return "PIN " + lastX + " " + lastY;
+                case UNPIN:
+                    if(pins > 0){
+                        pins--;
+                        return "UNPIN " + pinXs[pins] + " " + pinYs[pins];
+                    }
+                    return "UNPIN " + randomX() + " " + randomY();
+                case GET:
+                    return "GET contains=" + randomX() + " " + randomY();
+                case GETALL:
+                    return "GET";
+                case PINS:
+                    return "GET PINS";
+                default:
+                    return "SHAKE";
+            }
+        }
+
+        private void remember(Op op){
+            if(op == Op.POST){
+                noteXs[notes % noteXs.length] = lastX;
+                noteYs[notes % noteYs.length] = lastY;
+                notes++;
+            }else if(op == Op.PIN && pins < pinXs.length){
+                pinXs[pins] = lastX;
+                pinYs[pins] = lastY;
+                pins++;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+// open-addressing hash map with primitive long keys (linear probing, no boxing).
+// used for coordinate lookups where keys are packed (x,y) pairs.
+public class LongHashMap<V>{
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    public LongHashMap(){
+        this(MIN_CAPACITY);
+    }
+
+    public LongHashMap(int expected){
+        int cap = MIN_CAPACITY;
+        while(cap < expected * 2) cap <<= 1;
+        allocate(cap);
+    }
+
+    public static long pack(int x, int y){
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    public static int unpackX(long key){
+        return (int)(key >> 32);
+    }
+
+    public static int unpackY(long key){
+        return (int) key;
+    }
+
+    private void allocate(int cap){
+        keys = new long[cap];
+        values = new Object[cap];
+        mask = cap - 1;
+    }
+
+    private int slot(long key){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    public int size(){ return size; }
+    public boolean isEmpty(){ return size == 0; }
+
+    public boolean containsKey(long key){
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key){
+        for(int i = slot(key); values[i] != null; i = (i + 1) & mask){
+            if(keys[i] == key) return (V) values[i];
+        }
+        return null;
+    }
+
+    // null values are not allowed, an empty slot is marked by a null value
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value){
+        if(value == null) throw new IllegalArgumentException("null value");
+        int i = slot(key);
+        for(; values[i] != null; i = (i + 1) & mask){
+            if(keys[i] == key){
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if(++size * 2 > keys.length) rehash(keys.length << 1);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key){
+        int i = slot(key);
+        for(; values[i] != null; i = (i + 1) & mask){
+            if(keys[i] == key) break;
+        }
+        if(values[i] == null) return null;
+
+        V old = (V) values[i];
+        values[i] = null;
+        size--;
+
+        // backward-shift the rest of the probe run so lookups never see a hole
+        int hole = i;
+        for(int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask){
+            int home = slot(keys[j]);
+            if(((j - home) & mask) >= ((j - hole) & mask)){
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                values[j] = null;
+                hole = j;
+            }
+        }
+        return old;
+    }
+
+    public void clear(){
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void rehash(int cap){
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(cap);
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldValues[i] == null) continue;
+            int j = slot(oldKeys[i]);
+            while(values[j] != null) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
@@ -1,9 +1,51 @@
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
 
 public class ManualClient {
+    // one text protocol connection: reads the DATA INIT handshake on open, then every
+    // request line gets exactly one response line. LoadGen drives many of these.
+    public static class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+        private final String handshake;
+
+        public Connection(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), Protocol.CHARSET));
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), Protocol.CHARSET), true);
+            handshake = in.readLine();
+        }
+
+        public String getHandshake() {
+            return handshake;
+        }
+
+        public void send(String line) {
+            out.println(line);
+        }
+
+        // the next response line, null once the server has closed the connection
+        public String receive() throws IOException {
+            return in.readLine();
+        }
+
+        public String request(String line) throws IOException {
+            send(line);
+            return receive();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
     public static void main(String[] args) {
         String host = "127.0.0.1";
         int port = 4554;
@@ -13,23 +55,18 @@ public class ManualClient {
         if (args.length >= 2) port = Integer.parseInt(args[1]);
 
         try (
-            Socket socket = new Socket(host, port);
-            BufferedReader serverIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            PrintWriter serverOut = new PrintWriter(socket.getOutputStream(), true);
+            Connection server = new Connection(host, port);
             BufferedReader userIn = new BufferedReader(new InputStreamReader(System.in));
         ) {
             // Read handshake line
-            String handshake = serverIn.readLine();
-            System.out.println("SERVER: " + handshake);
+            System.out.println("SERVER: " + server.getHandshake());
 
             while (true) {
                 System.out.print("YOU> ");
                 String line = userIn.readLine();
                 if (line == null) break;
 
-                serverOut.println(line);
-
-                String resp = serverIn.readLine();
+                String resp = server.request(line);
                 if (resp == null) {
                     System.out.println("SERVER closed connection.");
                     break;
@@ -51,4 +88,3 @@ public class ManualClient {
         }
     }
 }
-
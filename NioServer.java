@@ -0,0 +1,379 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking server engine: the accepting thread hands sockets round-robin to a few
+// event loops, each multiplexing its connections on one Selector. Speaks the same text
+// protocol as ClientHandler through RequestProcessor. A loop never waits for the
+// write-ahead log: responses to mutations stay in their connection's buffer, and the
+// connection stops reading, until the log has the records they acknowledge.
+public class NioServer{
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // a subscriber this far behind is disconnected rather than buffered without bound
+    private static final int MAX_PENDING_EVENTS = 10000;
+
+    private final int port;
+    private final Board board;
+    private final EventLoop[] loops;
+    private final Semaphore admission;
+    private final ServerStats stats;
+
+    public NioServer(int port, Board board, ServerStats stats, int ioThreads, Semaphore admission){
+        this.port = port;
+        this.board = board;
+        this.stats = stats;
+        this.loops = new EventLoop[ioThreads];
+        this.admission = admission;
+    }
+
+    // blocks accepting connections until the server socket fails
+    public void run() throws IOException{
+        for(int i = 0; i < loops.length; i++){
+            loops[i] = new EventLoop(i);
+            loops[i].start();
+        }
+
+        try(ServerSocketChannel server = ServerSocketChannel.open()){
+            server.bind(new InetSocketAddress(port));
+            System.out.println("Server listening on port " + port + " (nio, " + loops.length + " io threads)");
+
+            int next = 0;
+            while(true){
+                SocketChannel ch = server.accept();
+                if(admission != null && !admission.tryAcquire()){
+                    rejectBusy(ch);
+                    continue;
+                }
+                loops[next].assign(ch);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    private void rejectBusy(SocketChannel ch){
+        stats.error(ErrorCode.BUSY);
+        try(ch){
+            ByteBuffer buf = ByteBuffer.wrap(Protocol.encodeLine(Protocol.error(ErrorCode.BUSY, "Server is at max connections")));
+            while(buf.hasRemaining()) ch.write(buf);
+        }catch(IOException ignored){}
+    }
+
+    private class EventLoop extends Thread{
+        private final Selector selector;
+        private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        // connections with SUBSCRIBE events queued by other threads
+        private final Queue<Connection> pushed = new ConcurrentLinkedQueue<>();
+        // connections whose held responses the log has caught up with
+        private final Queue<Connection> logged = new ConcurrentLinkedQueue<>();
+
+        // one pair of direct buffers per loop, connections only borrow them for a syscall
+        private final ByteBuffer readBuf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer writeBuf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        EventLoop(int id) throws IOException{
+            super("nio-loop-" + id);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        void assign(SocketChannel ch){
+            incoming.add(ch);
+            selector.wakeup();
+        }
+
+        void schedulePush(Connection c){
+            pushed.add(c);
+            selector.wakeup();
+        }
+
+        // called by the log's writer thread, or by the loop itself
+        void scheduleLogged(Connection c){
+            logged.add(c);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run(){
+            board.deferLogWaitsOnThisThread();
+            while(true){
+                try{
+                    selector.select();
+                    registerIncoming();
+                    drainLogged();
+                    drainPushed();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while(it.hasNext()){
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection c = (Connection) key.attachment();
+                        try{
+                            if(key.isValid() && key.isReadable()) c.onReadable();
+                            if(key.isValid() && key.isWritable()) c.onWritable();
+                        }catch(IOException e){
+                            System.out.println("NioServer IO error: " + e.getMessage());
+                            c.close();
+                        }
+                    }
+                }catch(IOException e){
+                    System.out.println("NioServer selector error: " + e.getMessage());
+                }
+            }
+        }
+
+        private void drainLogged(){
+            Connection c;
+            while((c = logged.poll()) != null){
+                try{
+                    c.onLogged();
+                }catch(IOException e){
+                    System.out.println("NioServer IO error: " + e.getMessage());
+                    c.close();
+                }
+            }
+        }
+
+        private void drainPushed(){
+            Connection c;
+            while((c = pushed.poll()) != null){
+                try{
+                    c.writeEvents();
+                }catch(IOException e){
+                    System.out.println("NioServer IO error: " + e.getMessage());
+                    c.close();
+                }
+            }
+        }
+
+        private void registerIncoming(){
+            SocketChannel ch;
+            while((ch = incoming.poll()) != null){
+                try{
+                    ch.configureBlocking(false);
+                    Connection c = new Connection(ch, this);
+                    c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                    c.println(c.processor.buildInitLine());
+                    c.flush();
+                    stats.connectionOpened();
+                }catch(IOException e){
+                    System.out.println("NioServer IO error: " + e.getMessage());
+                    try{ ch.close(); }catch(IOException ignored){}
+                    if(admission != null) admission.release();
+                }
+            }
+        }
+    }
+
+    private class Connection implements ResponseWriter{
+        private final SocketChannel ch;
+        private final EventLoop loop;
+        private final RequestProcessor processor = new RequestProcessor(board, stats, this::push);
+        private SelectionKey key;
+
+        // SUBSCRIBE events from other threads, moved into the output buffer by the loop
+        private final Queue<String> events = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingEvents = new AtomicInteger();
+        private final AtomicBoolean pushScheduled = new AtomicBoolean();
+        // set by the event that went over the limit; nothing is queued or delivered after it
+        private final AtomicBoolean overflowed = new AtomicBoolean();
+
+        // the request line being framed, carried over between reads
+        private final RequestFramer framer = new RequestFramer();
+
+        // encoded responses not yet accepted by the socket
+        private byte[] out = new byte[1024];
+        private int outStart = 0;
+        private int outEnd = 0;
+
+        private boolean closing = false;
+        private boolean closed = false;
+        // the buffered responses acknowledge mutations the log does not have yet
+        private boolean awaitingLog = false;
+        // after PROTOCOL BINARY, lines go out as BinaryProtocol TEXT frames
+        private boolean framed = false;
+        // after COMPRESS DEFLATE, every line or frame is wrapped in a Compression record
+        private Compression.Encoder compression;
+
+        Connection(SocketChannel ch, EventLoop loop){
+            this.ch = ch;
+            this.loop = loop;
+        }
+
+        void onReadable() throws IOException{
+            ByteBuffer buf = loop.readBuf;
+            buf.clear();
+            int n = ch.read(buf);
+            if(n < 0){
+                close();
+                return;
+            }
+            stats.bytesIn(n);
+            buf.flip();
+
+            while(buf.hasRemaining() && !closing){
+                if(framer.accept(buf.get())){
+                    if(!processor.handle(framer.bytes(), framer.length(), this)) closing = true;
+                    if(processor.isBinary()) framer.useFrames();
+                }
+            }
+
+            long unlogged = board.takeUnlogged();
+            if(unlogged > 0){
+                awaitingLog = true;
+                key.interestOps(0);
+                board.whenLogged(unlogged, () -> loop.scheduleLogged(this));
+                return;
+            }
+            // everything in this read is answered with as few writes as possible
+            flush();
+        }
+
+        void onLogged() throws IOException{
+            if(closed) return;
+            awaitingLog = false;
+            flush();
+        }
+
+        void onWritable() throws IOException{
+            flush();
+        }
+
+        // runs under the board lock on some other thread: queue and wake the loop
+        void push(String line){
+            if(overflowed.get()) return;
+            if(pendingEvents.incrementAndGet() > MAX_PENDING_EVENTS){
+                // once: stop the events at the source and have the loop close the connection
+                if(overflowed.compareAndSet(false, true)){
+                    processor.close();
+                    loop.schedulePush(this);
+                }
+                return;
+            }
+            events.add(line);
+            if(pushScheduled.compareAndSet(false, true)) loop.schedulePush(this);
+        }
+
+        void writeEvents() throws IOException{
+            pushScheduled.set(false);
+            if(closed) return;
+            if(overflowed.get()){
+                System.out.println("NioServer: subscriber too slow, disconnecting");
+                close();
+                return;
+            }
+            // while the socket is backed up, or responses wait for the log, events stay
+            // queued and count against the limit
+            if(outStart < outEnd || awaitingLog) return;
+            moveEvents();
+            flush();
+        }
+
+        private boolean moveEvents(){
+            // a subscriber that missed events must not be sent the ones after the gap
+            if(overflowed.get()) return false;
+            boolean moved = false;
+            String line;
+            while((line = events.poll()) != null){
+                pendingEvents.decrementAndGet();
+                println(line);
+                moved = true;
+            }
+            return moved;
+        }
+
+        @Override
+        public void println(String response){
+            writeEncoded(framed ? BinaryProtocol.textFrame(response) : Protocol.encodeLine(response));
+        }
+
+        @Override
+        public boolean useFrames(String ack){
+            println(ack);
+            framed = true;
+            return true;
+        }
+
+        @Override
+        public boolean useCompression(String ack){
+            println(ack);
+            compression = new Compression.Encoder();
+            return true;
+        }
+
+        @Override
+        public void writeEncoded(byte[] line){
+            if(compression != null) line = compression.encode(line);
+            ensureOutCapacity(line.length);
+            System.arraycopy(line, 0, out, outEnd, line.length);
+            outEnd += line.length;
+        }
+
+        private void ensureOutCapacity(int extra){
+            if(outEnd + extra <= out.length) return;
+            int pending = outEnd - outStart;
+            byte[] target = out;
+            if(pending + extra > out.length){
+                int cap = out.length;
+                while(cap < pending + extra) cap *= 2;
+                target = new byte[cap];
+            }
+            System.arraycopy(out, outStart, target, 0, pending);
+            out = target;
+            outStart = 0;
+            outEnd = pending;
+        }
+
+        void flush() throws IOException{
+            if(awaitingLog) return;
+            ByteBuffer buf = loop.writeBuf;
+            do{
+                while(outStart < outEnd){
+                    buf.clear();
+                    int len = Math.min(buf.capacity(), outEnd - outStart);
+                    buf.put(out, outStart, len);
+                    buf.flip();
+                    int written = ch.write(buf);
+                    stats.bytesOut(written);
+                    outStart += written;
+                    if(written < len) break;
+                }
+            }while(outStart == outEnd && !closing && moveEvents());
+
+            if(outStart == outEnd){
+                outStart = 0;
+                outEnd = 0;
+                if(closing){
+                    close();
+                    return;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            }else{
+                // socket is full, wait for it to drain before reading more requests
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        void close(){
+            if(closed) return;
+            closed = true;
+            processor.close();
+            if(compression != null) compression.end();
+            stats.connectionClosed();
+            try{
+                if(key != null) key.cancel();
+                ch.close();
+            }catch(IOException ignored){}
+            if(admission != null) admission.release();
+        }
+    }
+}
@@ -1,4 +1,6 @@
 public class Note{
+    // insertion order on the board, used to keep index lookups in posting order
+    private long seq;
     private final int x;
     private final int y;
     private final String color;
@@ -7,13 +9,16 @@ public class Note{
     // simple pinned state: if at least one pin hits this note
     private int pinCount = 0;
 
-    public Note(int x, int y, String color, String message){
+    public Note(long seq, int x, int y, String color, String message){
+        this.seq = seq;
         this.x = x;
         this.y = y;
         this.color = color;
         this.message = message;
     }
 
+    public long getSeq(){ return seq; }
+    public void setSeq(long seq){ this.seq = seq; }
     public int getX(){ return x; }
     public int getY(){ return y; }
     public String getColor(){ return color; }
@@ -45,4 +50,13 @@ public class Note{
     public boolean isPinned(){
         return pinCount > 0;
     }
+
+    public int getPinCount(){
+        return pinCount;
+    }
+
+    // restoring from a snapshot
+    public void setPinCount(int pinCount){
+        this.pinCount = pinCount;
+    }
 }
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+// uniform grid over the rows [top, top + height) of the board, each note id is filed
+// under the cell holding its origin, which must lie in those rows.
+// cells are at least one note in size, so a point can only be covered by notes whose
+// origin is in the point's own cell or in the neighbouring cells to the left/above it.
+public class NoteGrid{
+    // keeps the cell arrays bounded for huge boards with tiny notes; grids that split
+    // up one board share this between them
+    public static final int MAX_CELLS = 1 << 20;
+
+    private final int noteWidth;
+    private final int noteHeight;
+    private final int top;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int cols;
+    private final int rows;
+    private final IntList[] cells;
+    private final NoteStore store;
+
+    public NoteGrid(int boardWidth, int top, int height, int noteWidth, int noteHeight, int maxCells, NoteStore store){
+        this.store = store;
+        this.noteWidth = noteWidth;
+        this.noteHeight = noteHeight;
+        this.top = top;
+
+        int scale = 1;
+        while((long)(boardWidth / (noteWidth * scale) + 1) * (height / (noteHeight * scale) + 1) > maxCells){
+            scale *= 2;
+        }
+        this.cellWidth = noteWidth * scale;
+        this.cellHeight = noteHeight * scale;
+        this.cols = boardWidth / cellWidth + 1;
+        this.rows = height / cellHeight + 1;
+        this.cells = new IntList[cols * rows];
+    }
+
+    private int cellIndex(int x, int y){
+        return ((y - top) / cellHeight) * cols + (x / cellWidth);
+    }
+
+    public void add(int id){
+        int idx = cellIndex(store.x(id), store.y(id));
+        IntList cell = cells[idx];
+        if(cell == null){
+            cell = new IntList(2);
+            cells[idx] = cell;
+        }
+        cell.add(id);
+    }
+
+    // before the store lets go of id
+    public void remove(int id){
+        int idx = cellIndex(store.x(id), store.y(id));
+        IntList cell = cells[idx];
+        if(cell == null) return;
+        int i = cell.lastIndexOf(id);
+        if(i >= 0) cell.removeAt(i);
+        if(cell.isEmpty()) cells[idx] = null;
+    }
+
+    // the note whose origin is exactly (x, y), or -1
+    public int at(int x, int y){
+        if(x < 0 || y < top || x / cellWidth >= cols || (y - top) / cellHeight >= rows) return -1;
+        IntList cell = cells[cellIndex(x, y)];
+        if(cell == null) return -1;
+        for(int i = 0; i < cell.size(); i++){
+            int id = cell.get(i);
+            if(store.x(id) == x && store.y(id) == y) return id;
+        }
+        return -1;
+    }
+
+    public void clear(){
+        Arrays.fill(cells, null);
+    }
+
+    // notes containing (px, py), in no particular order
+    public IntList containing(int px, int py){
+        IntList result = new IntList(4);
+        if(px < 0 || py < top) return result;
+
+        int cx = px / cellWidth;
+        int cy = (py - top) / cellHeight;
+        for(int y = Math.max(0, cy - 1); y <= cy && y < rows; y++){
+            for(int x = Math.max(0, cx - 1); x <= cx && x < cols; x++){
+                IntList cell = cells[y * cols + x];
+                if(cell == null) continue;
+                for(int i = 0; i < cell.size(); i++){
+                    int id = cell.get(i);
+                    if(store.contains(id, px, py, noteWidth, noteHeight)) result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+// Where a Board keeps its notes. A note is an int id handed out by add() and valid
+// until remove(), after which the id may be handed out again. Colors are the board's
+// color ids. Not thread safe, the board's lock covers every call.
+public interface NoteStore{
+    int add(long seq, int x, int y, int color, String message);
+
+    void remove(int id);
+
+    void clear();
+
+    // posting order on the board
+    long seq(int id);
+    void setSeq(int id, long seq);
+
+    int x(int id);
+    int y(int id);
+    int color(int id);
+
+    int pinCount(int id);
+    void setPinCount(int id, int count);
+
+    String message(int id);
+
+    // the message as UTF-8, a fresh array the caller may keep
+    byte[] messageUtf8(int id);
+
+    default boolean isPinned(int id){
+        return pinCount(id) > 0;
+    }
+
+    default void addPin(int id){
+        setPinCount(id, pinCount(id) + 1);
+    }
+
+    // pin counts never drop below zero
+    default void removePin(int id){
+        int c = pinCount(id);
+        if(c > 0) setPinCount(id, c - 1);
+    }
+
+    default boolean contains(int id, int px, int py, int noteWidth, int noteHeight){
+        int x = x(id), y = y(id);
+        return px >= x && px < x + noteWidth &&
+               py >= y && py < y + noteHeight;
+    }
+}
@@ -0,0 +1,77 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// One Note object per note, the id being its slot in an array. Costs a heap object
+// and a String per note but hands out messages without copying.
+public class ObjectNoteStore implements NoteStore{
+    private final String[] colorNames;
+    private Note[] slots = new Note[16];
+    private int used;
+    private final IntList free = new IntList();
+
+    public ObjectNoteStore(String[] colorNames){
+        this.colorNames = colorNames;
+    }
+
+    @Override
+    public int add(long seq, int x, int y, int color, String message){
+        int id;
+        if(!free.isEmpty()){
+            id = free.removeLast();
+        }else{
+            if(used == slots.length) slots = Arrays.copyOf(slots, used * 2);
+            id = used++;
+        }
+        slots[id] = new Note(seq, x, y, colorNames[color], message);
+        return id;
+    }
+
+    @Override
+    public void remove(int id){
+        slots[id] = null;
+        free.add(id);
+    }
+
+    @Override
+    public void clear(){
+        Arrays.fill(slots, 0, used, null);
+        used = 0;
+        free.clear();
+    }
+
+    @Override public long seq(int id){ return slots[id].getSeq(); }
+    @Override public void setSeq(int id, long seq){ slots[id].setSeq(seq); }
+    @Override public int x(int id){ return slots[id].getX(); }
+    @Override public int y(int id){ return slots[id].getY(); }
+
+    @Override
+    public int color(int id){
+        // notes are created with the names from colorNames, so this is an identity match
+        String c = slots[id].getColor();
+        for(int i = 0; i < colorNames.length; i++){
+            if(colorNames[i] == c) return i;
+        }
+        throw new IllegalStateException("unknown color " + c);
+    }
+
+    @Override public int pinCount(int id){ return slots[id].getPinCount(); }
+    @Override public void setPinCount(int id, int count){ slots[id].setPinCount(count); }
+    @Override public boolean isPinned(int id){ return slots[id].isPinned(); }
+    @Override public void addPin(int id){ slots[id].addPin(); }
+    @Override public void removePin(int id){ slots[id].removePin(); }
+
+    @Override
+    public String message(int id){
+        return slots[id].getMessage();
+    }
+
+    @Override
+    public byte[] messageUtf8(int id){
+        return slots[id].getMessage().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean contains(int id, int px, int py, int noteWidth, int noteHeight){
+        return slots[id].contains(px, py, noteWidth, noteHeight);
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+// Pin counts by coordinate: open addressing over primitive arrays, keyed by
+// LongHashMap.pack(x, y), so PIN / UNPIN neither build strings nor box counts.
+// A count of 0 marks an empty slot. Coordinates are never negative (a pin must hit
+// a note), which makes the packed keys sort in (x, y) order as plain longs.
+public class PinTable{
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] counts;
+    private int size;
+    private int total;
+    private int mask;
+
+    public PinTable(){
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int cap){
+        keys = new long[cap];
+        counts = new int[cap];
+        mask = cap - 1;
+    }
+
+    private int slot(long key){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    // distinct pinned coordinates
+    public int size(){ return size; }
+
+    // pins over all coordinates
+    public int total(){ return total; }
+
+    public int count(int x, int y){
+        return count(LongHashMap.pack(x, y));
+    }
+
+    public int count(long key){
+        for(int i = slot(key); counts[i] != 0; i = (i + 1) & mask){
+            if(keys[i] == key) return counts[i];
+        }
+        return 0;
+    }
+
+    public void add(int x, int y){
+        add(LongHashMap.pack(x, y), 1);
+    }
+
+    public void add(long key, int n){
+        if(n <= 0) throw new IllegalArgumentException("count " + n);
+        int i = slot(key);
+        for(; counts[i] != 0; i = (i + 1) & mask){
+            if(keys[i] == key){
+                counts[i] += n;
+                total += n;
+                return;
+            }
+        }
+        keys[i] = key;
+        counts[i] = n;
+        total += n;
+        if(++size * 2 > keys.length) rehash(keys.length << 1);
+    }
+
+    // takes one pin away; false if there was none at (x,y)
+    public boolean remove(int x, int y){
+        long key = LongHashMap.pack(x, y);
+        int i = slot(key);
+        for(; counts[i] != 0; i = (i + 1) & mask){
+            if(keys[i] == key) break;
+        }
+        if(counts[i] == 0) return false;
+
+        total--;
+        if(--counts[i] > 0) return true;
+        size--;
+
+        // backward-shift the rest of the probe run so lookups never see a hole
+        int hole = i;
+        for(int j = (i + 1) & mask; counts[j] != 0; j = (j + 1) & mask){
+            int home = slot(keys[j]);
+            if(((j - home) & mask) >= ((j - hole) & mask)){
+                keys[hole] = keys[j];
+                counts[hole] = counts[j];
+                counts[j] = 0;
+                hole = j;
+            }
+        }
+        return true;
+    }
+
+    public void clear(){
+        Arrays.fill(counts, 0);
+        size = 0;
+        total = 0;
+    }
+
+    // every pinned coordinate's key, in (x, y) order
+    public long[] sortedKeys(){
+        long[] result = new long[size];
+        int n = 0;
+        for(int i = 0; i < keys.length; i++){
+            if(counts[i] != 0) result[n++] = keys[i];
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void rehash(int cap){
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        allocate(cap);
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldCounts[i] == 0) continue;
+            int j = slot(oldKeys[i]);
+            while(counts[j] != 0) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            counts[j] = oldCounts[i];
+        }
+    }
+}
@@ -1,4 +1,19 @@
+import java.nio.charset.Charset;
+
 public class Protocol{
+    // what a PrintWriter on the socket would use, so every engine emits identical bytes
+    public static final Charset CHARSET = Charset.defaultCharset();
+    public static final byte[] LINE_END = System.lineSeparator().getBytes(CHARSET);
+
+    // one response line, encoded and terminated, ready to be written as-is
+    public static byte[] encodeLine(String line){
+        byte[] text = line.getBytes(CHARSET);
+        byte[] bytes = new byte[text.length + LINE_END.length];
+        System.arraycopy(text, 0, bytes, 0, text.length);
+        System.arraycopy(LINE_END, 0, bytes, text.length, LINE_END.length);
+        return bytes;
+    }
+
     public static String ok(){
         return "OK";
     }
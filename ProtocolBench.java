@@ -0,0 +1,71 @@
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+// Compares the text DATA NOTES line with the binary NOTES frame for one board:
+// server-side encode time, client-side decode time, bytes on the wire and how many
+// messages survive the round trip unchanged.
+//   java ProtocolBench [notes] [rounds]
+public class ProtocolBench{
+    public static void main(String[] args) throws Exception{
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        Board board = new Board(100000, 100000, 10, 10, new LinkedHashSet<>(List.of("red", "green", "blue", "yellow")));
+        // the DATA INIT order, which is what color ids refer to
+        String[] colorTable = board.getValidColors().toArray(new String[0]);
+
+        Random rnd = new Random(42);
+        // single spaces only: the text client cannot recover runs of spaces and loses sync
+        String[] words = {"meeting", "at", "noon", "lost", "cat", "café", "room 204"};
+        List<String> messages = new ArrayList<>();
+        while(messages.size() < count){
+            StringBuilder msg = new StringBuilder();
+            int w = 1 + rnd.nextInt(5);
+            for(int i = 0; i < w; i++) msg.append(i == 0 ? "" : " ").append(words[rnd.nextInt(words.length)]);
+            try{
+                board.post(rnd.nextInt(99990), rnd.nextInt(99990), colorTable[rnd.nextInt(colorTable.length)], msg.toString());
+                messages.add(msg.toString());
+            }catch(ProtocolException ignored){}
+        }
+
+        byte[] text = null;
+        byte[] frame = null;
+        long textEncode = 0, binEncode = 0, textDecode = 0, binDecode = 0;
+        List<BoardPanel.NoteView> fromText = null, fromFrame = null;
+
+        // the first half of the rounds is warm-up
+        for(int r = 0; r < rounds * 2; r++){
+            long t0 = System.nanoTime();
+            text = Protocol.encodeLine(board.getNotesResponse(null, null, null, null));
+            long t1 = System.nanoTime();
+            frame = board.getNotesFrame(null, null, null, null);
+            long t2 = System.nanoTime();
+            fromText = ClientGUI.parseDataNotes(new String(text, Protocol.CHARSET).trim());
+            long t3 = System.nanoTime();
+            BinaryProtocol.Cursor c = new BinaryProtocol.Cursor(BinaryProtocol.readFrame(new ByteArrayInputStream(frame)));
+            c.get();
+            fromFrame = ClientGUI.decodeNotes(c, colorTable);
+            long t4 = System.nanoTime();
+            if(r >= rounds){
+                textEncode += t1 - t0;
+                binEncode += t2 - t1;
+                textDecode += t3 - t2;
+                binDecode += t4 - t3;
+            }
+        }
+
+        int textExact = 0, binExact = 0;
+        for(int i = 0; i < messages.size(); i++){
+            if(fromText.get(i).message.equals(messages.get(i))) textExact++;
+            if(fromFrame.get(i).message.equals(messages.get(i))) binExact++;
+        }
+
+        System.out.printf("notes: %d, rounds: %d%n", count, rounds);
+        System.out.printf("%-7s %12s %14s %14s %14s%n", "", "bytes", "encode ms", "decode ms", "exact msgs");
+        System.out.printf("%-7s %12d %14.3f %14.3f %14d%n", "text", text.length, textEncode / 1e6 / rounds, textDecode / 1e6 / rounds, textExact);
+        System.out.printf("%-7s %12d %14.3f %14.3f %14d%n", "binary", frame.length, binEncode / 1e6 / rounds, binDecode / 1e6 / rounds, binExact);
+    }
+}
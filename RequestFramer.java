@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+// Cuts a byte stream into requests. In text mode a request is a line ending at \n, \r or
+// \r\n, the way BufferedReader.readLine splits them; after useFrames() it is one
+// BinaryProtocol frame. A finished request stays in bytes()[0, length()) until the next
+// byte is fed.
+public class RequestFramer{
+    private byte[] line = new byte[256];
+    private int length = 0;
+    private boolean skipLF = false;
+    private boolean complete = false;
+
+    private boolean framed = false;
+    // -1 while the length prefix of the next frame is still being read
+    private int frameLength = -1;
+    private int prefixValue = 0;
+    private int prefixShift = 0;
+
+    public void useFrames(){
+        framed = true;
+    }
+
+    // returns true when b ended a request
+    public boolean accept(byte b) throws IOException{
+        if(complete){
+            complete = false;
+            length = 0;
+        }
+        if(framed) return acceptFramed(b);
+
+        if(skipLF){
+            skipLF = false;
+            if(b == '\n') return false;
+        }
+        if(b == '\n' || b == '\r'){
+            skipLF = b == '\r';
+            complete = true;
+            return true;
+        }
+        append(b);
+        return false;
+    }
+
+    private boolean acceptFramed(byte b) throws IOException{
+        if(frameLength < 0){
+            prefixValue |= (b & 0x7f) << prefixShift;
+            prefixShift += 7;
+            if((b & 0x80) != 0){
+                if(prefixShift > 28) throw new IOException("Malformed frame length");
+                return false;
+            }
+            frameLength = prefixValue;
+            prefixValue = 0;
+            prefixShift = 0;
+            if(frameLength > BinaryProtocol.MAX_REQUEST_FRAME) throw new IOException("Request frame too large");
+        }else{
+            append(b);
+        }
+
+        if(length < frameLength) return false;
+        frameLength = -1;
+        complete = true;
+        return true;
+    }
+
+    private void append(byte b){
+        if(length == line.length) line = Arrays.copyOf(line, line.length * 2);
+        line[length++] = b;
+    }
+
+    // bytes of an unterminated line, which readLine would still return at end of stream
+    public boolean hasPartialLine(){
+        return !framed && !complete && length > 0;
+    }
+
+    public byte[] bytes(){
+        return line;
+    }
+
+    public int length(){
+        return length;
+    }
+}
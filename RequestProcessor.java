@@ -0,0 +1,487 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+// Interprets the text protocol for one connection, independent of how bytes reach it.
+// Both the thread-per-connection ClientHandler and the NioServer event loops feed it lines.
+public class RequestProcessor{
+    private enum Command{ POST, PIN, UNPIN, GET, CLEAR, SHAKE, BATCH, SUBSCRIBE, UNSUBSCRIBE, PROTOCOL, COMPRESS, STATS, DISCONNECT }
+
+    // values() clones its array on every call
+    private static final Command[] COMMANDS = Command.values();
+
+    // what ServerStats times requests by: each command, with GET PINS apart from GET
+    private static final int GET_PINS = COMMANDS.length;
+    public static String[] statNames(){
+        String[] names = new String[COMMANDS.length + 1];
+        for(Command c : COMMANDS) names[c.ordinal()] = c.name();
+        names[GET_PINS] = "GET_PINS";
+        return names;
+    }
+    private static final BoardListener.Kind[] EVENT_KINDS = BoardListener.Kind.values();
+    private static final ErrorCode[] ERROR_CODES = ErrorCode.values();
+
+    // GET limit=<n> takes 1..MAX_PAGE; GET stream sends STREAM_CHUNK notes per line
+    private static final int MAX_PAGE = 10000;
+    private static final int STREAM_CHUNK = 256;
+
+    private final Board board;
+    private final ServerStats stats;
+    // what the request being handled is timed as, -1 for nothing
+    private int timedAs;
+    // the error codes the request answered with, one bit per ordinal; its latency is
+    // kept under each of them too
+    private long erred;
+    // reused for every line of this connection
+    private final RequestTokenizer tok = new RequestTokenizer();
+
+    // where SUBSCRIBE events go; called from whichever thread mutates the board,
+    // so the engine's implementation must be thread-safe and must not block
+    private final ResponseWriter pushes;
+    private volatile BoardListener subscription;
+
+    // an open BATCH: the item lines collected so far and how many are still expected
+    private static final int MAX_BATCH = 10000;
+    private List<String> batchLines;
+    private int batchRemaining;
+    private boolean batchAtomic;
+
+    // set by PROTOCOL BINARY: requests and responses are BinaryProtocol frames from then on
+    private boolean binary = false;
+    // set by COMPRESS DEFLATE
+    private boolean compressed = false;
+
+    public RequestProcessor(Board board, ResponseWriter pushes){
+        this(board, new ServerStats(statNames()), pushes);
+    }
+
+    public RequestProcessor(Board board, ServerStats stats, ResponseWriter pushes){
+        this.board = board;
+        this.stats = stats;
+        this.pushes = pushes;
+    }
+
+    // must be called once the connection is gone; an engine may also call it from inside
+    // a push to drop a subscriber that has fallen too far behind
+    public void close(){
+        BoardListener s = subscription;
+        if(s != null){
+            board.unsubscribe(s);
+            subscription = null;
+        }
+    }
+
+    // handles one request line; returns false once the client has asked to disconnect
+    public boolean handle(String line, ResponseWriter out){
+        long t0 = System.nanoTime();
+        tok.reset(line);
+        return timed(t0, handleTokens(out));
+    }
+
+    // same, for a request still in the connection's read buffer
+    public boolean handle(byte[] line, int len, ResponseWriter out){
+        long t0 = System.nanoTime();
+        if(binary){
+            // a frame is one request, line breaks inside it read as plain spaces
+            for(int i = 0; i < len; i++){
+                if(line[i] == '\n' || line[i] == '\r') line[i] = ' ';
+            }
+            tok.reset(line, len, StandardCharsets.UTF_8);
+        }else{
+            tok.reset(line, len, Protocol.CHARSET);
+        }
+        return timed(t0, handleTokens(out));
+    }
+
+    private boolean timed(long t0, boolean result){
+        long nanos = System.nanoTime() - t0;
+        if(timedAs >= 0) stats.record(timedAs, nanos);
+        for(long e = erred; e != 0; e &= e - 1) stats.errorLatency(ERROR_CODES[Long.numberOfTrailingZeros(e)], nanos);
+        return result;
+    }
+
+    private void error(ResponseWriter out, ErrorCode code, String message){
+        stats.error(code);
+        erred |= 1L << code.ordinal();
+        out.println(Protocol.error(code, message));
+    }
+
+    // once true, the engine has to frame the following requests with BinaryProtocol
+    public boolean isBinary(){
+        return binary;
+    }
+
+    private boolean handleTokens(ResponseWriter out){
+        timedAs = -1;
+        erred = 0;
+        if(batchLines != null){
+            // a batch is timed as a whole, by the line that runs it
+            batchLines.add(tok.line());
+            if(--batchRemaining == 0){
+                timedAs = Command.BATCH.ordinal();
+                runBatch(out);
+            }
+            return true;
+        }
+
+        if(tok.isEmpty()){
+            error(out, ErrorCode.INVALID_FORMAT, "Empty request");
+            return true;
+        }
+
+        Command command = tok.keyword(0, COMMANDS);
+        if(command == null){
+            error(out, ErrorCode.INVALID_COMMAND, "Unknown command");
+            return true;
+        }
+
+        if(command != Command.BATCH) timedAs = command.ordinal();
+        switch(command){
+            case DISCONNECT:
+                out.println("OK");
+                return false;
+
+            case CLEAR:
+                board.clear();
+                out.println("OK");
+                break;
+
+            case SHAKE:
+                board.shake();
+                out.println("OK");
+                break;
+
+            case POST:
+            case PIN:
+            case UNPIN:
+                try{
+                    board.apply(parseOp(command));
+                    out.println(Protocol.ok());
+                }
+                catch(ProtocolException e){
+                    error(out, e.getCode(), e.getMessage());
+                }
+                break;
+
+            // BATCH n [ATOMIC], followed by n POST / PIN / UNPIN lines; answered with one
+            // OK / ERROR line per item once the last item has arrived
+            case BATCH: {
+                int n = -1;
+                if(tok.count() == 2 || (tok.count() == 3 && tok.is(2, "ATOMIC"))){
+                    try{
+                        n = tok.parseInt(1, 0);
+                    }
+                    catch(NumberFormatException ignored){}
+                }
+                if(n < 1 || n > MAX_BATCH){
+                    error(out, ErrorCode.INVALID_FORMAT, "BATCH requires n (1-" + MAX_BATCH + ") [ATOMIC]");
+                    break;
+                }
+                batchLines = new ArrayList<>(n);
+                batchRemaining = n;
+                batchAtomic = tok.count() == 3;
+                break;
+            }
+
+            case GET:
+                handleGet(out);
+                break;
+
+            // SUBSCRIBE [POST] [PIN] [UNPIN] [SHAKE] [CLEAR]
+            // replies with DATA NOTES and DATA PINS, then pushes EVENT lines as the board changes
+            case SUBSCRIBE: {
+                if(subscription != null){
+                    error(out, ErrorCode.INVALID_FORMAT, "Already subscribed");
+                    break;
+                }
+
+                EnumSet<BoardListener.Kind> kinds = EnumSet.noneOf(BoardListener.Kind.class);
+                for(int i = 1; i < tok.count(); i++){
+                    BoardListener.Kind kind = tok.keyword(i, EVENT_KINDS);
+                    if(kind == null || kind == BoardListener.Kind.SNAPSHOT){
+                        error(out, ErrorCode.INVALID_FORMAT, "Unknown SUBSCRIBE event");
+                        return true;
+                    }
+                    kinds.add(kind);
+                }
+                if(kinds.isEmpty()) kinds = EnumSet.complementOf(EnumSet.of(BoardListener.Kind.SNAPSHOT));
+
+                EnumSet<BoardListener.Kind> wanted = kinds;
+                subscription = (kind, event) -> {
+                    if(kind == BoardListener.Kind.SNAPSHOT || wanted.contains(kind)) pushes.println(event);
+                };
+                board.subscribe(subscription);
+                break;
+            }
+
+            // COMPRESS DEFLATE: everything after the OK goes out as Compression records
+            case COMPRESS:
+                if(tok.count() != 2 || !tok.is(1, "DEFLATE")){
+                    error(out, ErrorCode.INVALID_FORMAT, "COMPRESS requires DEFLATE");
+                }
+                else if(compressed){
+                    error(out, ErrorCode.INVALID_FORMAT, "Compression already in use");
+                }
+                else if(subscription != null){
+                    // pushed events would race with the switch
+                    error(out, ErrorCode.INVALID_FORMAT, "COMPRESS must come before SUBSCRIBE");
+                }
+                else if(!out.useCompression(Protocol.ok())){
+                    error(out, ErrorCode.INVALID_COMMAND, "Compression not supported");
+                }
+                else{
+                    compressed = true;
+                }
+                break;
+
+            case STATS:
+                out.println(stats.statsLine(board));
+                break;
+
+            case UNSUBSCRIBE:
+                close();
+                out.println(Protocol.ok());
+                break;
+
+            // PROTOCOL BINARY: switch this connection to BinaryProtocol frames after the OK
+            case PROTOCOL:
+                if(tok.count() != 2 || !tok.is(1, "BINARY")){
+                    error(out, ErrorCode.INVALID_FORMAT, "PROTOCOL requires BINARY");
+                }
+                else if(binary){
+                    error(out, ErrorCode.INVALID_FORMAT, "Binary protocol already in use");
+                }
+                else if(subscription != null){
+                    // pushed events would race with the switch
+                    error(out, ErrorCode.INVALID_FORMAT, "PROTOCOL must come before SUBSCRIBE");
+                }
+                else if(!out.useFrames(Protocol.ok())){
+                    error(out, ErrorCode.INVALID_COMMAND, "Binary protocol not supported");
+                }
+                else{
+                    binary = true;
+                }
+                break;
+        }
+
+        return true;
+    }
+
+    private void handleGet(ResponseWriter out){
+        int count = tok.count();
+
+        // the unfiltered forms are what polling clients send; both come from the cache
+        if(count == 1){
+            out.writeEncoded(binary ? board.encodedNotesFrame() : board.encodedNotesResponse());
+            return;
+        }
+        if(count == 2 && tok.is(1, "PINS")){
+            timedAs = GET_PINS;
+            out.writeEncoded(binary ? board.encodedPinsFrame() : board.encodedPinsResponse());
+            return;
+        }
+
+        // GET since=<v> / GET PINS since=<v>: only what changed after board version v
+        if(count == 3 && tok.is(1, "PINS") && tok.startsWith(2, "since=")){
+            timedAs = GET_PINS;
+            long since = parseSince(2, out);
+            if(since >= 0) out.println(board.getPinsDelta(since));
+            return;
+        }
+        if(count == 2 && tok.startsWith(1, "since=")){
+            long since = parseSince(1, out);
+            if(since >= 0) out.println(board.getNotesDelta(since));
+            return;
+        }
+
+        String colorFilter = null;
+        Integer containsX = null;
+        Integer containsY = null;
+        String refersTo = null;
+        int limit = 0;
+        long cursor = -1;
+        boolean stream = false;
+
+        try{
+            for(int i = 1; i < count; i++){
+                if(tok.startsWith(i, "color=")){
+                    colorFilter = tok.text(i, 6);
+                    if(colorFilter.isEmpty()){
+                        error(out, ErrorCode.INVALID_FORMAT, "color filter missing value");
+                        break;
+                    }
+                }
+                else if(tok.startsWith(i, "contains=")){
+                    if(tok.length(i) == 9){
+                        error(out, ErrorCode.INVALID_FORMAT, "contains filter missing x");
+                        break;
+                    }
+                    if(i + 1 >= count){
+                        error(out, ErrorCode.INVALID_FORMAT, "contains filter mssing y");
+                        break;
+                    }
+                    containsX = tok.parseInt(i, 9);
+                    containsY = tok.parseInt(i + 1, 0);
+                    i++;
+                }
+                else if(tok.startsWith(i, "refersTo=")){
+                    refersTo = tok.text(i, 9);
+                    if(refersTo.isEmpty()){
+                        error(out, ErrorCode.INVALID_FORMAT, "refersTo filter missing value");
+                        break;
+                    }
+                }
+                else if(tok.startsWith(i, "since=")){
+                    error(out, ErrorCode.INVALID_FORMAT, "since cannot be combined with other filters");
+                    return;
+                }
+                else if(tok.startsWith(i, "limit=")){
+                    try{
+                        limit = tok.parseInt(i, 6);
+                    }
+                    catch(NumberFormatException ignored){}
+                    if(limit < 1 || limit > MAX_PAGE){
+                        error(out, ErrorCode.INVALID_FORMAT, "limit requires n (1-" + MAX_PAGE + ")");
+                        return;
+                    }
+                }
+                else if(tok.startsWith(i, "cursor=")){
+                    try{
+                        cursor = tok.parseLong(i, 7);
+                    }
+                    catch(NumberFormatException ignored){}
+                    if(cursor < 0){
+                        error(out, ErrorCode.INVALID_FORMAT, "Invalid cursor");
+                        return;
+                    }
+                }
+                else if(tok.is(i, "STREAM")){
+                    stream = true;
+                }
+                else{
+                    error(out, ErrorCode.INVALID_FORMAT, "Unknown GET filter");
+                    break;
+                }
+            }
+            if(stream && (limit > 0 || cursor >= 0)){
+                error(out, ErrorCode.INVALID_FORMAT, "stream cannot be combined with limit or cursor");
+            }
+            else if(cursor >= 0 && limit == 0){
+                error(out, ErrorCode.INVALID_FORMAT, "cursor requires limit");
+            }
+            // pages and streamed parts are text lines, as TEXT frames on a binary connection
+            else if(limit > 0) out.println(board.getNotesPage(colorFilter, containsX, containsY, refersTo, cursor, limit));
+            else if(stream) board.streamNotes(colorFilter, containsX, containsY, refersTo, STREAM_CHUNK, out);
+            else if(binary) out.writeEncoded(board.getNotesFrame(colorFilter, containsX, containsY, refersTo));
+            else out.println(board.getNotesResponse(colorFilter, containsX, containsY, refersTo));
+        }
+        catch(NumberFormatException e){
+            error(out, ErrorCode.INVALID_FORMAT, "contains requires integer x and y");
+        }
+    }
+
+    // parses the POST / PIN / UNPIN currently in the tokenizer
+    private BoardOp parseOp(Command command) throws ProtocolException{
+        try{
+            if(command == Command.POST){
+                if(tok.count() < 5){
+                    throw new ProtocolException(ErrorCode.INVALID_FORMAT, "POST required x y color message");
+                }
+                int x = tok.parseInt(1, 0);
+                int y = tok.parseInt(2, 0);
+                String color = tok.text(3, 0);
+
+                String message = tok.afterNthSpace(4);
+                if(message == null){
+                    throw new ProtocolException(ErrorCode.INVALID_FORMAT, "POST missing message");
+                }
+                return BoardOp.post(x, y, color, message);
+            }
+
+            if(tok.count() != 3){
+                throw new ProtocolException(ErrorCode.INVALID_FORMAT, command.name() + " requires x y");
+            }
+            int x = tok.parseInt(1, 0);
+            int y = tok.parseInt(2, 0);
+            return command == Command.PIN ? BoardOp.pin(x, y) : BoardOp.unpin(x, y);
+        }
+        catch(NumberFormatException e){
+            throw new ProtocolException(ErrorCode.INVALID_FORMAT, "x and y must be integers");
+        }
+    }
+
+    private void runBatch(ResponseWriter out){
+        List<String> lines = batchLines;
+        boolean atomic = batchAtomic;
+        batchLines = null;
+
+        // parse everything first; an atomic batch with a bad line never touches the board
+        ProtocolException[] errors = new ProtocolException[lines.size()];
+        List<BoardOp> ops = new ArrayList<>(lines.size());
+        int[] itemOf = new int[lines.size()];
+        int firstBad = -1;
+        for(int i = 0; i < lines.size(); i++){
+            tok.reset(lines.get(i));
+            try{
+                if(tok.isEmpty()) throw new ProtocolException(ErrorCode.INVALID_FORMAT, "Empty request");
+                Command command = tok.keyword(0, COMMANDS);
+                if(command != Command.POST && command != Command.PIN && command != Command.UNPIN){
+                    throw new ProtocolException(ErrorCode.INVALID_COMMAND, "Only POST, PIN and UNPIN are allowed in BATCH");
+                }
+                itemOf[ops.size()] = i;
+                ops.add(parseOp(command));
+            }
+            catch(ProtocolException e){
+                errors[i] = e;
+                if(firstBad == -1) firstBad = i;
+            }
+        }
+
+        if(atomic && firstBad != -1){
+            for(int i = 0; i < errors.length; i++){
+                if(i == firstBad) error(out, errors[i].getCode(), errors[i].getMessage());
+                else error(out, ErrorCode.BATCH_ABORTED, "Not executed");
+            }
+            return;
+        }
+
+        ProtocolException[] results = board.applyBatch(ops, atomic);
+        int failed = -1;
+        for(int j = 0; j < results.length; j++){
+            if(results[j] == null) continue;
+            errors[itemOf[j]] = results[j];
+            if(failed == -1) failed = itemOf[j];
+        }
+
+        for(int i = 0; i < errors.length; i++){
+            if(errors[i] != null) error(out, errors[i].getCode(), errors[i].getMessage());
+            else if(!atomic || failed == -1) out.println(Protocol.ok());
+            else error(out, ErrorCode.BATCH_ABORTED, i < failed ? "Rolled back" : "Not executed");
+        }
+    }
+
+    // the version of a since=<v> token, or -1 after reporting a bad one
+    private long parseSince(int token, ResponseWriter out){
+        try{
+            long since = tok.parseLong(token, 6);
+            if(since >= 0) return since;
+        }
+        catch(NumberFormatException ignored){}
+        error(out, ErrorCode.INVALID_FORMAT, "since requires a non-negative integer version");
+        return -1;
+    }
+
+    public String buildInitLine(){
+        StringBuilder sb = new StringBuilder();
+        sb.append("DATA INIT ")
+        .append(board.getBoardWidth()).append(" ")
+        .append(board.getBoardHeight()).append(" ")
+        .append(board.getNoteWidth()).append(" ")
+        .append(board.getNoteHeight()).append(" ")
+        .append(board.getValidColors().size());
+
+        for(String c : board.getValidColors()) sb.append(" ").append(c);
+        return sb.toString();
+    }
+}
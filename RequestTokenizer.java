@@ -0,0 +1,157 @@
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Splits one request line into tokens the way line.trim().split("\\s+") would, without
+// allocating: the text is copied into a reused char buffer and tokens are kept as offsets
+// into it. Strings are only created for values that outlive the request (colors, messages).
+public class RequestTokenizer{
+    // request bytes can be copied straight to chars when the text charset agrees with ASCII
+    private static final boolean ASCII_CHARSET = asciiCompatible();
+
+    private char[] chars = new char[256];
+    private CharBuffer view = CharBuffer.wrap(chars);
+    private int start;   // the trimmed line is chars[start, end)
+    private int end;
+
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count;
+
+    private static boolean asciiCompatible(){
+        byte[] ascii = new byte[128];
+        for(int i = 0; i < ascii.length; i++) ascii[i] = (byte) i;
+        String decoded = new String(ascii, Protocol.CHARSET);
+        if(decoded.length() != ascii.length) return false;
+        for(int i = 0; i < ascii.length; i++){
+            if(decoded.charAt(i) != i) return false;
+        }
+        return true;
+    }
+
+    public void reset(String line){
+        ensureCapacity(line.length());
+        line.getChars(0, line.length(), chars, 0);
+        tokenize(line.length());
+    }
+
+    public void reset(byte[] bytes, int len, Charset charset){
+        if(charset != StandardCharsets.UTF_8 && !(charset == Protocol.CHARSET && ASCII_CHARSET)){
+            reset(new String(bytes, 0, len, charset));
+            return;
+        }
+        ensureCapacity(len);
+        for(int i = 0; i < len; i++){
+            if(bytes[i] < 0){
+                reset(new String(bytes, 0, len, charset));
+                return;
+            }
+            chars[i] = (char) bytes[i];
+        }
+        tokenize(len);
+    }
+
+    private void ensureCapacity(int len){
+        if(len <= chars.length) return;
+        chars = new char[Math.max(len, chars.length * 2)];
+        view = CharBuffer.wrap(chars);
+    }
+
+    private static boolean isWhitespace(char c){
+        // exactly the \s class of java.util.regex
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private void tokenize(int len){
+        // String.trim() strips every char up to ' ', not only \s
+        start = 0;
+        end = len;
+        while(start < end && chars[start] <= ' ') start++;
+        while(end > start && chars[end - 1] <= ' ') end--;
+
+        count = 0;
+        int i = start;
+        while(i < end){
+            int s = i;
+            while(i < end && !isWhitespace(chars[i])) i++;
+            if(count == starts.length){
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = s;
+            ends[count] = i;
+            count++;
+            while(i < end && isWhitespace(chars[i])) i++;
+        }
+    }
+
+    public int count(){
+        return count;
+    }
+
+    public boolean isEmpty(){
+        return count == 0;
+    }
+
+    public int length(int token){
+        return ends[token] - starts[token];
+    }
+
+    // case-insensitive match against an upper-case keyword
+    public boolean is(int token, String keyword){
+        int s = starts[token];
+        if(ends[token] - s != keyword.length()) return false;
+        for(int i = 0; i < keyword.length(); i++){
+            char c = chars[s + i];
+            char k = keyword.charAt(i);
+            if(c != k && Character.toUpperCase(c) != k) return false;
+        }
+        return true;
+    }
+
+    // the enum constant whose name the token spells, ignoring case, or null
+    public <E extends Enum<E>> E keyword(int token, E[] values){
+        for(E e : values){
+            if(is(token, e.name())) return e;
+        }
+        return null;
+    }
+
+    public boolean startsWith(int token, String prefix){
+        int s = starts[token];
+        if(ends[token] - s < prefix.length()) return false;
+        for(int i = 0; i < prefix.length(); i++){
+            if(chars[s + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // Integer.parseInt of the token with its first skip chars dropped
+    public int parseInt(int token, int skip){
+        return Integer.parseInt(view, starts[token] + skip, ends[token], 10);
+    }
+
+    public long parseLong(int token, int skip){
+        return Long.parseLong(view, starts[token] + skip, ends[token], 10);
+    }
+
+    public String text(int token, int skip){
+        return new String(chars, starts[token] + skip, ends[token] - starts[token] - skip);
+    }
+
+    // what follows the n-th ' ' of the trimmed line, or null when that is nothing
+    public String afterNthSpace(int n){
+        for(int i = start; i < end; i++){
+            if(chars[i] == ' ' && --n == 0){
+                return i + 1 < end ? new String(chars, i + 1, end - i - 1) : null;
+            }
+        }
+        return null;
+    }
+
+    // the whole trimmed line
+    public String line(){
+        return new String(chars, start, end - start);
+    }
+}
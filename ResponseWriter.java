@@ -0,0 +1,22 @@
+// Sink for protocol response lines; each call is one line without its terminator.
+public interface ResponseWriter{
+    void println(String line);
+
+    // a line already encoded by Protocol.encodeLine, terminator included; the array may be
+    // shared between connections and must not be modified
+    default void writeEncoded(byte[] line){
+        println(new String(line, 0, line.length - Protocol.LINE_END.length, Protocol.CHARSET));
+    }
+
+    // writes ack as the last plain line, then sends later println lines as BinaryProtocol
+    // TEXT frames; false, with nothing written, where this writer cannot frame
+    default boolean useFrames(String ack){
+        return false;
+    }
+
+    // writes ack uncompressed, then sends later lines and frames as Compression records;
+    // false, with nothing written, where this writer cannot compress
+    default boolean useCompression(String ack){
+        return false;
+    }
+}
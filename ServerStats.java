@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters shared by every connection of one server: how long each kind of request took
+// from parsing to its response being queued, how often each error went out, connections
+// and bytes. Everything is an adder or a LatencyHistogram, so recording never locks.
+// Time spent waiting for the board's locks is kept by the Board itself.
+public class ServerStats{
+    private static final ErrorCode[] ERROR_CODES = ErrorCode.values();
+
+    private final long started = System.nanoTime();
+    private final String[] commands;
+    private final LatencyHistogram[] latency;
+    private final LongAdder[] errors = new LongAdder[ERROR_CODES.length];
+    private final LatencyHistogram[] errorLatency = new LatencyHistogram[ERROR_CODES.length];
+    private final AtomicLong connections = new AtomicLong();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    // one latency histogram per name, record() takes the index
+    public ServerStats(String... commands){
+        this.commands = commands.clone();
+        this.latency = new LatencyHistogram[commands.length];
+        for(int i = 0; i < commands.length; i++) latency[i] = new LatencyHistogram();
+        for(int i = 0; i < errors.length; i++){
+            errors[i] = new LongAdder();
+            errorLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(int command, long nanos){
+        latency[command].record(nanos);
+    }
+
+    // counts one error sent, with or without a request behind it
+    public void error(ErrorCode code){
+        errors[code.ordinal()].increment();
+    }
+
+    // how long a request that answered with code took; once per request and code, however
+    // many such errors it sent
+    public void errorLatency(ErrorCode code, long nanos){
+        errorLatency[code.ordinal()].record(nanos);
+    }
+
+    public void connectionOpened(){
+        connections.incrementAndGet();
+        accepted.increment();
+    }
+
+    public void connectionClosed(){
+        connections.decrementAndGet();
+    }
+
+    public void bytesIn(long n){
+        bytesIn.add(n);
+    }
+
+    public void bytesOut(long n){
+        bytesOut.add(n);
+    }
+
+    // DATA STATS key=value ..., all on one line:
+    //   uptime_s connections accepted bytes_in bytes_out
+    //   lock_acquisitions lock_waits lock_wait=<mean>,<p99>,<max>   contended board lock acquisitions, us
+    //   cache_hits cache_misses                                     unfiltered GET / GET PINS response cache
+    //   <COMMAND>=<count>,<mean>,<p50>,<p99>,<p999>,<max>          for every command seen, us
+    //   error.<CODE>=<count>                                        for every error sent
+    //   error_latency.<CODE>=<count>,<mean>,<p50>,<p99>,<p999>,<max>  requests that failed with it, us
+    public String statsLine(Board board){
+        StringBuilder sb = new StringBuilder("DATA STATS");
+        sb.append(" uptime_s=").append((System.nanoTime() - started) / 1_000_000_000L);
+        sb.append(" connections=").append(connections.get());
+        sb.append(" accepted=").append(accepted.sum());
+        sb.append(" bytes_in=").append(bytesIn.sum());
+        sb.append(" bytes_out=").append(bytesOut.sum());
+
+        LatencyHistogram waits = board.getLockWaits();
+        sb.append(" lock_acquisitions=").append(board.getLockAcquisitions());
+        sb.append(" lock_waits=").append(waits.count());
+        sb.append(" lock_wait=").append(micros(waits.mean()))
+          .append(",").append(micros(waits.percentile(0.99)))
+          .append(",").append(micros(waits.max()));
+        sb.append(" cache_hits=").append(board.getResponseCacheHits());
+        sb.append(" cache_misses=").append(board.getResponseCacheMisses());
+
+        for(int i = 0; i < commands.length; i++) appendLatency(sb, commands[i], latency[i]);
+        for(int i = 0; i < errors.length; i++){
+            long n = errors[i].sum();
+            if(n != 0) sb.append(" error.").append(ERROR_CODES[i].name()).append("=").append(n);
+        }
+        for(int i = 0; i < errorLatency.length; i++){
+            appendLatency(sb, "error_latency." + ERROR_CODES[i].name(), errorLatency[i]);
+        }
+        return sb.toString();
+    }
+
+    private static void appendLatency(StringBuilder sb, String name, LatencyHistogram h){
+        if(h.count() == 0) return;
+        sb.append(" ").append(name).append("=").append(h.count())
+          .append(",").append(micros(h.mean()))
+          .append(",").append(micros(h.percentile(0.5)))
+          .append(",").append(micros(h.percentile(0.99)))
+          .append(",").append(micros(h.percentile(0.999)))
+          .append(",").append(micros(h.max()));
+    }
+
+    private static String micros(double nanos){
+        // the decimal point must not turn into a comma, commas separate the values
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+    }
+
+    // appends a timestamped stats line to the file every interval, from a daemon thread
+    public void dumpEvery(Path file, int seconds, Board board){
+        Thread dumper = new Thread(() -> {
+            while(true){
+                try{
+                    Thread.sleep(seconds * 1000L);
+                }catch(InterruptedException e){
+                    return;
+                }
+                String line = Instant.now() + " " + statsLine(board) + System.lineSeparator();
+                try{
+                    Files.write(file, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }catch(IOException e){
+                    System.out.println("ServerStats: could not write " + file + ": " + e.getMessage());
+                }
+            }
+        }, "stats-dump");
+        dumper.setDaemon(true);
+        dumper.start();
+    }
+}
@@ -0,0 +1,44 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+// What a restart from a snapshot costs: a board of n notes (a quarter of them pinned)
+// is snapshotted, written, then mapped back and restored into a fresh board.
+//   java SnapshotBench [notes] [rounds]
+public class SnapshotBench{
+    public static void main(String[] args) throws Exception{
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int side = (int) Math.ceil(Math.sqrt(n));
+        LinkedHashSet<String> colors = new LinkedHashSet<>(List.of("red", "green", "blue", "yellow"));
+        String[] palette = colors.toArray(new String[0]);
+
+        Board board = new Board(side, side, 1, 1, colors);
+        for(int i = 0; i < n; i++){
+            board.post(i % side, i / side, palette[i % palette.length], "note " + i + " about topic " + (i % 997));
+        }
+        for(int i = 0; i < n; i += 4) board.pin(i % side, i / side);
+
+        Path dir = Files.createTempDirectory("snapbench");
+        Path file = dir.resolve("bench.snap");
+        System.out.printf("%d notes%n", n);
+        System.out.printf("%-6s %10s %10s %10s %10s %12s%n", "round", "copy ms", "write ms", "read ms", "restore ms", "file bytes");
+        for(int r = 1; r <= rounds; r++){
+            long t0 = System.nanoTime();
+            BoardSnapshot snap = board.snapshot(() -> 0);
+            long t1 = System.nanoTime();
+            snap.write(file);
+            long t2 = System.nanoTime();
+            BoardSnapshot read = BoardSnapshot.read(file);
+            long t3 = System.nanoTime();
+            Board restored = new Board(side, side, 1, 1, colors);
+            restored.restore(read);
+            long t4 = System.nanoTime();
+            System.out.printf("%-6d %10d %10d %10d %10d %12d%n", r, (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000,
+                    (t3 - t2) / 1_000_000, (t4 - t3) / 1_000_000, Files.size(file));
+        }
+        Files.delete(file);
+        Files.delete(dir);
+    }
+}
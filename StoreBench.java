@@ -0,0 +1,61 @@
+import java.util.LinkedHashSet;
+import java.util.List;
+
+// The two note stores side by side: heap per note of the store alone and of a whole
+// board built on it, and on that board the time of full scans that touch every note (unfiltered GET as text and as
+// a NOTES frame, a color filter, a refersTo= too short for the trigram index).
+// Run each store in its own JVM for clean heap numbers:
+//   java StoreBench objects|columns [notes] [rounds]
+public class StoreBench{
+    public static void main(String[] args) throws Exception{
+        boolean columnar = args.length > 0 && args[0].equals("columns");
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int side = (int) Math.ceil(Math.sqrt(n)) * 2;
+        LinkedHashSet<String> colors = new LinkedHashSet<>(List.of("red", "green", "blue", "yellow"));
+        String[] palette = colors.toArray(new String[0]);
+
+        long before = usedHeap();
+        NoteStore alone = columnar ? new ColumnNoteStore() : new ObjectNoteStore(palette);
+        for(int i = 0; i < n; i++) alone.add(i, i, i, i % palette.length, "note " + i + " about topic " + (i % 997));
+        long storeHeap = usedHeap() - before;
+        alone.clear();
+        alone = null;
+
+        before = usedHeap();
+        Board board = new Board(side, side, 2, 2, colors, columnar, 1);
+        for(int i = 0; i < n; i++){
+            board.post((i % (side / 2)) * 2, (i / (side / 2)) * 2, palette[i % palette.length], "note " + i + " about topic " + (i % 997));
+        }
+        for(int i = 0; i < n; i += 4) board.pin((i % (side / 2)) * 2, (i / (side / 2)) * 2);
+        long heap = usedHeap() - before;
+
+        System.out.printf("%s store, %d notes: %.1f bytes/note in the store, %.1f on the whole board%n",
+                columnar ? "columns" : "objects", n, storeHeap / (double) n, heap / (double) n);
+        System.out.printf("%-6s %12s %12s %12s %12s%n", "round", "GET ms", "frame ms", "color ms", "refersTo ms");
+        long sink = 0;
+        for(int r = 1; r <= rounds; r++){
+            long t0 = System.nanoTime();
+            sink += board.getNotesResponse(null, null, null, null).length();
+            long t1 = System.nanoTime();
+            sink += board.getNotesFrame(null, null, null, null).length;
+            long t2 = System.nanoTime();
+            sink += board.getNotesResponse("blue", null, null, null).length();
+            long t3 = System.nanoTime();
+            sink += board.getNotesResponse(null, null, null, "9a").length();
+            long t4 = System.nanoTime();
+            System.out.printf("%-6d %12d %12d %12d %12d%n", r, (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000,
+                    (t3 - t2) / 1_000_000, (t4 - t3) / 1_000_000);
+        }
+        if(sink == 42) System.out.println();
+    }
+
+    private static long usedHeap() throws InterruptedException{
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++){
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
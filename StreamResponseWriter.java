@@ -0,0 +1,101 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ResponseWriter over a blocking socket stream. Lines are written whole under one lock,
+// so a pusher thread and the request thread can share it. Nothing reaches the socket
+// until flush(), which lets a batch of pipelined responses leave in one write. Like
+// PrintWriter, write errors are remembered rather than thrown; see checkError().
+// flush() blocks in the socket write with the lock held, so it is a ReentrantLock: a
+// virtual thread waiting behind a slow client parks instead of pinning its carrier.
+public class StreamResponseWriter implements ResponseWriter{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean error = false;
+    // after PROTOCOL BINARY, lines go out as BinaryProtocol TEXT frames
+    private volatile boolean framed = false;
+    // after COMPRESS DEFLATE, every line or frame is wrapped in a Compression record
+    private Compression.Encoder compression;
+
+    public StreamResponseWriter(OutputStream out){
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    @Override
+    public void println(String line){
+        writeEncoded(framed ? BinaryProtocol.textFrame(line) : Protocol.encodeLine(line));
+    }
+
+    @Override
+    public boolean useFrames(String ack){
+        lock.lock();
+        try{
+            println(ack);
+            framed = true;
+            return true;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean useCompression(String ack){
+        lock.lock();
+        try{
+            println(ack);
+            compression = new Compression.Encoder();
+            return true;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void writeEncoded(byte[] line){
+        lock.lock();
+        try{
+            if(error) return;
+            out.write(compression == null ? line : compression.encode(line));
+        }catch(IOException e){
+            error = true;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    // frees the compressor's native memory once the connection is done; the stream
+    // itself belongs to the caller
+    public void release(){
+        lock.lock();
+        try{
+            if(compression != null) compression.end();
+            compression = null;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    public void flush(){
+        lock.lock();
+        try{
+            if(error) return;
+            out.flush();
+        }catch(IOException e){
+            error = true;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    public boolean checkError(){
+        lock.lock();
+        try{
+            return error;
+        }finally{
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+// POST / PIN / UNPIN throughput of one Board with every writer thread in its own band of
+// rows, for the board in a single band and cut into one band per thread. Only shows a
+// difference with as many free cores as threads.
+//   java TileBench [threads] [opsPerThread]
+public class TileBench{
+    private static final int NOTE = 4;
+    private static final int WIDTH = 400;
+
+    public static void main(String[] args) throws Exception{
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        System.out.printf("%d threads x %d ops, %d cores%n", threads, perThread, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-6s %12s%n", "tiles", "ops/s");
+        for(int round = 0; round < 3; round++){
+            run(1, threads, perThread);
+            run(threads, threads, perThread);
+        }
+    }
+
+    private static void run(int tiles, int threads, int perThread) throws Exception{
+        // each thread gets a band tall enough for all its notes, so no POST ever collides
+        int rowsPerThread = (perThread / 3 / (WIDTH / NOTE) + 1) * NOTE;
+        Board board = new Board(WIDTH, threads * rowsPerThread, NOTE, NOTE, new LinkedHashSet<>(List.of("red")), false, tiles);
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++){
+            int top = t * rowsPerThread;
+            workers[t] = new Thread(() -> {
+                try{
+                    start.await();
+                    // POST a note, pin it and take the pin out again
+                    for(int i = 0; i + 3 <= perThread; i += 3){
+                        int n = i / 3;
+                        int x = (n % (WIDTH / NOTE)) * NOTE;
+                        int y = top + (n / (WIDTH / NOTE)) * NOTE;
+                        board.post(x, y, "red", "note " + n);
+                        board.pin(x + 1, y + 1);
+                        board.unpin(x + 1, y + 1);
+                    }
+                }catch(Exception e){
+                    throw new RuntimeException(e);
+                }
+            });
+            workers[t].start();
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        for(Thread w : workers) w.join();
+        long elapsed = System.nanoTime() - t0;
+
+        System.out.printf("%-6d %12.0f%n", board.getTileCount(), threads * (double) (perThread / 3 * 3) / (elapsed / 1e9));
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// Inverted index from every lower-cased 3-character window of a note's message to the
+// notes containing it. A refersTo= query can only match notes holding all of its
+// trigrams, so the shortest of those posting lists is a safe candidate set; candidates
+// still have to be verified with a real substring check.
+public class TrigramIndex{
+    private static final IntList NONE = new IntList(1);
+
+    private final LongHashMap<IntList> postings = new LongHashMap<>();
+    private final NoteStore store;
+
+    public TrigramIndex(NoteStore store){
+        this.store = store;
+    }
+
+    private static long trigram(String s, int i){
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    public void add(int id){
+        String text = store.message(id).toLowerCase();
+        for(int i = 0; i + 3 <= text.length(); i++){
+            long k = trigram(text, i);
+            IntList list = postings.get(k);
+            if(list == null){
+                list = new IntList(2);
+                postings.put(k, list);
+            }
+            // a repeated trigram finds id already at the end of its list
+            else if(list.get(list.size() - 1) == id) continue;
+            list.add(id);
+        }
+    }
+
+    // drops a batch of notes, touching each affected posting list once; the store
+    // must still hold them
+    public void removeAll(IntList removed){
+        if(removed.isEmpty()) return;
+        BitSet gone = new BitSet();
+        LongHashMap<Boolean> touched = new LongHashMap<>();
+        List<Long> keys = new ArrayList<>();
+        for(int r = 0; r < removed.size(); r++){
+            int id = removed.get(r);
+            gone.set(id);
+            String text = store.message(id).toLowerCase();
+            for(int i = 0; i + 3 <= text.length(); i++){
+                long k = trigram(text, i);
+                if(touched.put(k, Boolean.TRUE) == null) keys.add(k);
+            }
+        }
+        for(long k : keys){
+            IntList list = postings.get(k);
+            if(list == null) continue;
+            list.removeIf(gone::get);
+            if(list.isEmpty()) postings.remove(k);
+        }
+    }
+
+    public void clear(){
+        postings.clear();
+    }
+
+    // notes that may contain the already lower-cased query, in posting order;
+    // null when the query is too short to have a trigram and the caller must scan.
+    // the list belongs to the index, do not modify
+    public IntList candidates(String foldedQuery){
+        if(foldedQuery.length() < 3) return null;
+
+        IntList best = null;
+        for(int i = 0; i + 3 <= foldedQuery.length(); i++){
+            IntList list = postings.get(trigram(foldedQuery, i));
+            if(list == null) return NONE;
+            if(best == null || list.size() < best.size()) best = list;
+        }
+        return best;
+    }
+}
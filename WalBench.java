@@ -0,0 +1,62 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+// POST throughput of one Board without a log and with the log under each fsync policy,
+// with several writer threads so group commit has something to group.
+//   java WalBench [threads] [postsPerThread] [fsyncIntervalMs]
+public class WalBench{
+    public static void main(String[] args) throws Exception{
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int interval = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        System.out.printf("%d threads x %d posts%n", threads, perThread);
+        System.out.printf("%-10s %12s %14s%n", "policy", "posts/s", "log bytes");
+        run("none", null, threads, perThread, interval);
+        for(WriteAheadLog.FsyncPolicy p : WriteAheadLog.FsyncPolicy.values()){
+            run(p.name().toLowerCase(), p, threads, perThread, interval);
+        }
+    }
+
+    private static void run(String name, WriteAheadLog.FsyncPolicy policy, int threads, int perThread, int interval) throws Exception{
+        // one column of notes per thread, so no POST ever collides
+        Board board = new Board(threads * 10 + 10, perThread + 10, 1, 1, new LinkedHashSet<>(List.of("red")));
+        Path dir = Files.createTempDirectory("walbench");
+        Path file = WriteAheadLog.segmentFile(dir, 0);
+        WriteAheadLog log = policy == null ? null : new WriteAheadLog(dir, 0, policy, interval);
+        board.setLog(log);
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++){
+            int column = t * 10;
+            workers[t] = new Thread(() -> {
+                try{
+                    start.await();
+                    for(int i = 0; i < perThread; i++) board.post(column, i, "red", "note " + i);
+                }catch(Exception e){
+                    throw new RuntimeException(e);
+                }
+            });
+            workers[t].start();
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        for(Thread w : workers) w.join();
+        long elapsed = System.nanoTime() - t0;
+
+        long bytes = 0;
+        if(log != null){
+            log.close();
+            bytes = Files.size(file);
+        }
+        Files.deleteIfExists(file);
+        Files.delete(dir);
+
+        System.out.printf("%-10s %12.0f %14d%n", name, threads * (double) perThread / (elapsed / 1e9), bytes);
+    }
+}
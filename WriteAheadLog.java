@@ -0,0 +1,466 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// Append-only log of board mutations, so a restarted server comes back with its notes
+// and pins. Board appends a record at each mutation's commit point, under its write
+// lock, which only copies bytes into a buffer. A single writer thread moves whatever
+// has piled up to the file in one write and, depending on the policy, one force(), so
+// concurrent writers share a sync (group commit). Callers wait for that after letting
+// go of the board lock, or, when they must not block, ask to be called back once it has
+// happened (whenDurable).
+//
+// The log is a series of segment files wal-<n>.log; rotate() starts the next one at an
+// exact point between mutations, which is where a snapshot of the board is cut.
+//
+// record = int length, int crc32 of payload, payload
+// payload = byte type, then
+//   POST    int x, int y, string color, string message   (string = int n, n bytes UTF-8)
+//   PIN     int x, int y
+//   UNPIN   int x, int y
+//   SHAKE, CLEAR
+//   ATOMIC  int k, then k times int length + payload: one BATCH ATOMIC, all or nothing
+public class WriteAheadLog{
+    public enum FsyncPolicy{
+        ALWAYS,     // acknowledge after force(): nothing acknowledged is lost
+        INTERVAL,   // acknowledge after write(), force() at most every interval
+        OS          // acknowledge after write(), the OS decides when it reaches the disk
+    }
+
+    private static final byte POST = 1;
+    private static final byte PIN = 2;
+    private static final byte UNPIN = 3;
+    private static final byte SHAKE = 4;
+    private static final byte CLEAR = 5;
+    private static final byte ATOMIC = 6;
+
+    private final Path dir;
+    private FileChannel channel;   // writer thread only, after construction
+    private final FsyncPolicy policy;
+    private final long intervalNanos;
+    private final Thread writer;
+
+    // guards everything below; the writer thread swaps the buffers under it. A lock rather
+    // than a monitor, so callers on virtual threads park in awaitDurable() without pinning
+    // their carrier, and with a condition per kind of waiter so each is woken only for
+    // what it waits on
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();       // the writer thread: records, rotation, close
+    private final Condition written = lock.newCondition();    // awaitDurable()
+    private final Condition rotated = lock.newCondition();    // awaitRotation()
+    private byte[] pending = new byte[64 * 1024];
+    private int pendingLen = 0;
+    private byte[] spare = new byte[64 * 1024];
+    private long appendedSeq = 0;
+    private long writtenSeq = 0;
+    private long durableSeq = 0;
+    private boolean closing = false;
+    // whenDurable() actions still waiting for their record, run by the writer thread
+    private final List<Callback> callbacks = new ArrayList<>();
+
+    // segment being written, and a rotation the writer thread has yet to carry out
+    private long segment;
+    private int rotateAt = -1;
+    private long rotatedTo;
+
+    // records of an ATOMIC batch, collected until endAtomic()
+    private List<byte[]> atomic;
+
+    // appends to segment n in dir, creating it if needed
+    public WriteAheadLog(Path dir, long segment, FsyncPolicy policy, long intervalMillis) throws IOException{
+        this.dir = dir;
+        this.segment = segment;
+        this.rotatedTo = segment;
+        this.channel = openSegment(dir, segment);
+        this.policy = policy;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.writer = new Thread(this::writeLoop, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static Path segmentFile(Path dir, long n){
+        return dir.resolve(String.format("wal-%016d.log", n));
+    }
+
+    private static FileChannel openSegment(Path dir, long n) throws IOException{
+        return FileChannel.open(segmentFile(dir, n), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public FsyncPolicy getPolicy(){
+        return policy;
+    }
+
+    // Ends the current segment after everything appended so far and returns the number
+    // of the next one. Called under the board lock, so no record can land in between;
+    // the file switch itself happens on the writer thread, see awaitRotation().
+    public long rotate(){
+        lock.lock();
+        try{
+            if(rotateAt >= 0) throw new IllegalStateException("rotation already pending");
+            rotateAt = pendingLen;
+            segment++;
+            work.signal();
+            return segment;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    // blocks until the segments before n are complete on disk
+    public void awaitRotation(long n){
+        lock.lock();
+        try{
+            while(rotatedTo < n) rotated.awaitUninterruptibly();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    // ---- appending, called by Board under its write lock ----
+
+    public void logPost(int x, int y, String color, String message){
+        byte[] c = color.getBytes(StandardCharsets.UTF_8);
+        byte[] m = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(1 + 4 + 4 + 4 + c.length + 4 + m.length);
+        b.put(POST).putInt(x).putInt(y).putInt(c.length).put(c).putInt(m.length).put(m);
+        append(b.array());
+    }
+
+    public void logPin(int x, int y){
+        append(ByteBuffer.allocate(9).put(PIN).putInt(x).putInt(y).array());
+    }
+
+    public void logUnpin(int x, int y){
+        append(ByteBuffer.allocate(9).put(UNPIN).putInt(x).putInt(y).array());
+    }
+
+    public void logShake(){
+        append(new byte[]{ SHAKE });
+    }
+
+    public void logClear(){
+        append(new byte[]{ CLEAR });
+    }
+
+    // records until endAtomic() are replayed together or not at all
+    public void beginAtomic(){
+        atomic = new ArrayList<>();
+    }
+
+    public void endAtomic(){
+        List<byte[]> records = atomic;
+        atomic = null;
+        if(records.isEmpty()) return;
+
+        int size = 1 + 4;
+        for(byte[] r : records) size += 4 + r.length;
+        ByteBuffer b = ByteBuffer.allocate(size);
+        b.put(ATOMIC).putInt(records.size());
+        for(byte[] r : records) b.putInt(r.length).put(r);
+        append(b.array());
+    }
+
+    private void append(byte[] payload){
+        if(atomic != null){
+            atomic.add(payload);
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        lock.lock();
+        try{
+            if(pendingLen + 8 + payload.length > pending.length){
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLen + 8 + payload.length));
+            }
+            ByteBuffer.wrap(pending, pendingLen, 8).putInt(payload.length).putInt((int) crc.getValue());
+            System.arraycopy(payload, 0, pending, pendingLen + 8, payload.length);
+            // the writer only waits while nothing is pending, so the first record wakes it
+            // and later ones go out with it
+            if(pendingLen == 0) work.signal();
+            pendingLen += 8 + payload.length;
+            appendedSeq++;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    // the newest record appended so far; read under the board lock right after a mutation
+    public long lastSequence(){
+        lock.lock();
+        try{
+            return appendedSeq;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    // blocks until record seq is as safe as the policy promises
+    public void awaitDurable(long seq){
+        lock.lock();
+        try{
+            while(safeSeq() < seq) written.awaitUninterruptibly();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    // Runs action once record seq is as safe as the policy promises, without blocking the
+    // caller: right away if it already is, otherwise on the writer thread, which is why
+    // action must only hand the news on.
+    public void whenDurable(long seq, Runnable action){
+        lock.lock();
+        try{
+            if(safeSeq() < seq){
+                callbacks.add(new Callback(seq, action));
+                return;
+            }
+        }finally{
+            lock.unlock();
+        }
+        action.run();
+    }
+
+    // the newest record waiters may be told about; caller holds the lock
+    private long safeSeq(){
+        return policy == FsyncPolicy.ALWAYS ? durableSeq : writtenSeq;
+    }
+
+    private static final class Callback{
+        final long seq;
+        final Runnable action;
+
+        Callback(long seq, Runnable action){
+            this.seq = seq;
+            this.action = action;
+        }
+    }
+
+    // ---- writer thread ----
+
+    private void writeLoop(){
+        long lastForce = System.nanoTime();
+        boolean unforced = false;
+        try{
+            while(true){
+                byte[] buf;
+                int len;
+                long upTo;
+                boolean stop;
+                int split;
+                long next;
+                lock.lock();
+                try{
+                    while(pendingLen == 0 && !closing && rotateAt < 0){
+                        if(unforced && policy == FsyncPolicy.INTERVAL){
+                            long wait = lastForce + intervalNanos - System.nanoTime();
+                            if(wait <= 0) break;
+                            work.await(wait, TimeUnit.NANOSECONDS);
+                        }else{
+                            work.await();
+                        }
+                    }
+                    buf = pending;
+                    len = pendingLen;
+                    pending = spare;
+                    pendingLen = 0;
+                    spare = buf;
+                    upTo = appendedSeq;
+                    stop = closing;
+                    split = rotateAt;
+                    next = segment;
+                    rotateAt = -1;
+                }finally{
+                    lock.unlock();
+                }
+
+                if(split >= 0){
+                    // finish the old segment completely before anything goes to the new one
+                    write(buf, 0, split);
+                    channel.force(false);
+                    channel.close();
+                    channel = openSegment(dir, next);
+                    unforced = false;
+                    lock.lock();
+                    try{
+                        rotatedTo = next;
+                        rotated.signalAll();
+                    }finally{
+                        lock.unlock();
+                    }
+                }else{
+                    split = 0;
+                }
+                write(buf, split, len - split);
+                if(len > split) unforced = true;
+
+                long now = System.nanoTime();
+                boolean force = unforced && (stop || policy == FsyncPolicy.ALWAYS
+                        || (policy == FsyncPolicy.INTERVAL && now - lastForce >= intervalNanos));
+                if(force){
+                    channel.force(false);
+                    lastForce = now;
+                    unforced = false;
+                }
+
+                List<Runnable> due = null;
+                lock.lock();
+                try{
+                    // waiters only care about the sequence their policy watches moving
+                    long before = safeSeq();
+                    writtenSeq = upTo;
+                    if(force || policy != FsyncPolicy.ALWAYS) durableSeq = upTo;
+                    long safe = safeSeq();
+                    if(safe > before){
+                        written.signalAll();
+                        for(int i = callbacks.size() - 1; i >= 0; i--){
+                            if(callbacks.get(i).seq > safe) continue;
+                            if(due == null) due = new ArrayList<>();
+                            due.add(callbacks.remove(i).action);
+                        }
+                    }
+                }finally{
+                    lock.unlock();
+                }
+                if(due != null){
+                    for(int i = due.size() - 1; i >= 0; i--) due.get(i).run();
+                }
+                if(stop) return;
+            }
+        }catch(IOException | InterruptedException e){
+            // acknowledging writes that never reach the log would be worse than stopping
+            System.out.println("WriteAheadLog: write failed, shutting down: " + e);
+            Runtime.getRuntime().halt(2);
+        }
+    }
+
+    private void write(byte[] buf, int off, int len) throws IOException{
+        ByteBuffer out = ByteBuffer.wrap(buf, off, len);
+        while(out.hasRemaining()) channel.write(out);
+    }
+
+    // writes and forces what is pending, then closes the file
+    public void close() throws IOException{
+        lock.lock();
+        try{
+            closing = true;
+            work.signal();
+        }finally{
+            lock.unlock();
+        }
+        try{
+            writer.join();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    // ---- recovery ----
+
+    // applies every complete record of file to board, which must not have a log attached
+    // yet; a torn record at the end (crash mid-write) is cut off. Returns the records applied.
+    public static long replay(Path file, Board board) throws IOException{
+        if(!Files.exists(file)) return 0;
+
+        long good = 0;
+        long records = 0;
+        try(InputStream raw = Files.newInputStream(file);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 64 * 1024))){
+            while(true){
+                byte[] payload;
+                try{
+                    int len = in.readInt();
+                    int crc = in.readInt();
+                    if(len <= 0) break;
+                    payload = new byte[len];
+                    in.readFully(payload);
+                    CRC32 check = new CRC32();
+                    check.update(payload, 0, len);
+                    if((int) check.getValue() != crc) break;
+                }catch(EOFException e){
+                    break;
+                }
+                apply(ByteBuffer.wrap(payload), board);
+                good += 8 + payload.length;
+                records++;
+            }
+        }
+
+        if(good < Files.size(file)){
+            System.out.println("WriteAheadLog: dropping " + (Files.size(file) - good) + " bytes of incomplete log");
+            try(FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)){
+                ch.truncate(good);
+                ch.force(false);
+            }
+        }
+        return records;
+    }
+
+    private static void apply(ByteBuffer b, Board board){
+        byte type = b.get();
+        try{
+            switch(type){
+                case POST: case PIN: case UNPIN:
+                    b.position(b.position() - 1);
+                    board.apply(readOp(b));
+                    break;
+                case SHAKE:
+                    board.shake();
+                    break;
+                case CLEAR:
+                    board.clear();
+                    break;
+                case ATOMIC: {
+                    int k = b.getInt();
+                    List<BoardOp> ops = new ArrayList<>(k);
+                    for(int i = 0; i < k; i++){
+                        int len = b.getInt();
+                        ByteBuffer item = b.slice();
+                        item.limit(len);
+                        b.position(b.position() + len);
+                        ops.add(readOp(item));
+                    }
+                    board.applyBatch(ops, true);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown log record type " + type);
+            }
+        }catch(ProtocolException e){
+            // only successful mutations are logged, so replaying them cannot fail
+            throw new IllegalStateException("Log does not replay: " + e.getMessage(), e);
+        }
+    }
+
+    private static BoardOp readOp(ByteBuffer b){
+        byte type = b.get();
+        int x = b.getInt();
+        int y = b.getInt();
+        if(type == PIN) return BoardOp.pin(x, y);
+        if(type == UNPIN) return BoardOp.unpin(x, y);
+        return BoardOp.post(x, y, readString(b), readString(b));
+    }
+
+    private static String readString(ByteBuffer b){
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
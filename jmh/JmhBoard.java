@@ -0,0 +1,103 @@
+import bench.BoardTarget;
+import bench.Inputs;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+// The default-package side of BoardTarget: the real Board, RequestTokenizer and
+// RequestProcessor, with ProtocolException turned into a false return.
+public class JmhBoard implements BoardTarget{
+    private Board board;
+    // the origins populate() posted, for aiming pins at notes
+    private List<int[]> posted;
+
+    private final RequestTokenizer tok = new RequestTokenizer();
+    private RequestProcessor processor;
+    private int written;
+    private final ResponseWriter out = line -> written += line.length();
+
+    @Override
+    public void populate(int side, int notes, int pins, int tiles, boolean columnar, long seed){
+        board = new Board(side, side, Inputs.NOTE, Inputs.NOTE, new LinkedHashSet<>(Arrays.asList(Inputs.COLORS)), columnar, tiles);
+        processor = new RequestProcessor(board, line -> {});
+        posted = new ArrayList<>();
+        Random rnd = new Random(seed);
+        int range = side - Inputs.NOTE;
+        for(int tries = 0; posted.size() < notes && tries < notes * 4; tries++){
+            int x = rnd.nextInt(range + 1), y = rnd.nextInt(range + 1);
+            if(post(x, y, Inputs.COLORS[rnd.nextInt(Inputs.COLORS.length)], Inputs.message(rnd))) posted.add(new int[]{x, y});
+        }
+        int[][] at = pointsOnNotes(rnd, pins);
+        for(int i = 0; i < pins && !posted.isEmpty(); i++) pin(at[0][i], at[1][i]);
+    }
+
+    @Override
+    public boolean post(int x, int y, String color, String message){
+        try{
+            board.post(x, y, color, message);
+            return true;
+        }catch(ProtocolException e){
+            return false;
+        }
+    }
+
+    @Override
+    public boolean pin(int x, int y){
+        try{
+            board.pin(x, y);
+            return true;
+        }catch(ProtocolException e){
+            return false;
+        }
+    }
+
+    @Override
+    public boolean unpin(int x, int y){
+        try{
+            board.unpin(x, y);
+            return true;
+        }catch(ProtocolException e){
+            return false;
+        }
+    }
+
+    @Override
+    public void shake(){
+        board.shake();
+    }
+
+    @Override
+    public int getNotes(String color, Integer x, Integer y, String refersTo){
+        return board.getNotesResponse(color, x, y, refersTo).length();
+    }
+
+    @Override
+    public int getPins(){
+        return board.getPinsResponse().length();
+    }
+
+    @Override
+    public int parse(byte[] line){
+        tok.reset(line, line.length, Protocol.CHARSET);
+        return tok.count() + tok.parseInt(1, tok.startsWith(1, "contains=") ? 9 : 0);
+    }
+
+    @Override
+    public int handle(byte[] line){
+        processor.handle(line, line.length, out);
+        return written;
+    }
+
+    @Override
+    public int[][] pointsOnNotes(Random rnd, int n){
+        int[][] at = new int[2][n];
+        for(int i = 0; i < n && !posted.isEmpty(); i++){
+            int[] o = posted.get(rnd.nextInt(posted.size()));
+            at[0][i] = o[0] + rnd.nextInt(Inputs.NOTE);
+            at[1][i] = o[1] + rnd.nextInt(Inputs.NOTE);
+        }
+        return at;
+    }
+}
@@ -0,0 +1,30 @@
+import bench.PinTarget;
+
+public class JmhPinTable implements PinTarget{
+    private final PinTable table = new PinTable();
+
+    @Override
+    public int count(int x, int y){
+        return table.count(x, y);
+    }
+
+    @Override
+    public void add(int x, int y){
+        table.add(x, y);
+    }
+
+    @Override
+    public boolean remove(int x, int y){
+        return table.remove(x, y);
+    }
+
+    @Override
+    public int total(){
+        return table.total();
+    }
+
+    @Override
+    public long[] sortedKeys(){
+        return table.sortedKeys();
+    }
+}
@@ -0,0 +1,227 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Baseline for the Board and request handling hot paths. side is the board's width and
+// height, notes how many 10x10 notes are posted on it (the density), pins how many pins
+// are put into them; tiles and store pick the Board layout. Every list in -p is swept:
+//   java -jar target/benchmarks.jar BoardBenchmark -p side=1000,10000 -p notes=1000,10000
+// Cases that change the board get a fresh one per iteration. unpin and shake cannot be
+// repeated on the same operands, so they run as single shots: unpin over a block of
+// BLOCK pinned points (the score is per block), shake once per freshly populated board.
+// mix is three readers doing GET contains= against one writer doing POST, PIN and
+// UNPIN on a shared board; -tg changes the split, e.g. -tg 7,1.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BoardBenchmark{
+    static final int BLOCK = 1024;
+
+    @Param("10000")
+    public int side;
+    @Param("10000")
+    public int notes;
+    @Param("1000")
+    public int pins;
+    @Param("1")
+    public int tiles;
+    @Param("objects")
+    public String store;
+
+    // the board the read-only cases share for the whole run
+    private BoardTarget board;
+
+    // operands, cycled through; BLOCK of each
+    private int[] xs, ys;
+    private String[] terms;
+    private byte[][] lines;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        board = fresh(1);
+        Random rnd = new Random(42);
+        xs = Inputs.randoms(rnd, BLOCK, side);
+        ys = Inputs.randoms(rnd, BLOCK, side);
+        terms = new String[BLOCK];
+        for(int i = 0; i < BLOCK; i++) terms[i] = Inputs.WORDS[rnd.nextInt(Inputs.WORDS.length)];
+        lines = Inputs.requestLines(rnd, BLOCK, side - Inputs.NOTE);
+    }
+
+    BoardTarget fresh(long seed){
+        BoardTarget b = BoardTarget.create();
+        b.populate(side, notes, pins, tiles, store.equalsIgnoreCase("columns"), seed);
+        return b;
+    }
+
+    private int next(){
+        return next++ & (BLOCK - 1);
+    }
+
+    // a board of its own per iteration, with operands aimed at it
+    @State(Scope.Thread)
+    public static class Mutable{
+        BoardTarget board;
+        int[] xs, ys;
+        int[][] onNotes;
+        String[] messages;
+        int next;
+        long seed;
+
+        @Setup(Level.Iteration)
+        public void setUp(BoardBenchmark b){
+            board = b.fresh(++seed);
+            Random rnd = new Random(seed);
+            int range = b.side - Inputs.NOTE;
+            xs = Inputs.randoms(rnd, BLOCK, range);
+            ys = Inputs.randoms(rnd, BLOCK, range);
+            messages = new String[BLOCK];
+            for(int i = 0; i < BLOCK; i++) messages[i] = Inputs.message(rnd);
+            onNotes = board.pointsOnNotes(rnd, BLOCK);
+        }
+
+        int next(){
+            return next++ & (BLOCK - 1);
+        }
+    }
+
+    // onto random spots of the populated board; the odd collision fails like it would for a client
+    @Benchmark
+    public boolean post(Mutable m){
+        int i = m.next();
+        return m.board.post(m.xs[i], m.ys[i], Inputs.COLORS[i & 3], m.messages[i]);
+    }
+
+    // inside existing notes, so every PIN hits at least one
+    @Benchmark
+    public boolean pin(Mutable m){
+        int i = m.next();
+        return m.board.pin(m.onNotes[0][i], m.onNotes[1][i]);
+    }
+
+    // the points of Mutable.onNotes, each pinned once more before the shot
+    @State(Scope.Thread)
+    public static class Pinned extends Mutable{
+        @Setup(Level.Iteration)
+        public void pinAll(){
+            for(int i = 0; i < BLOCK; i++) board.pin(onNotes[0][i], onNotes[1][i]);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 50)
+    public int unpin(Pinned p){
+        int done = 0;
+        for(int i = 0; i < BLOCK; i++){
+            if(p.board.unpin(p.onNotes[0][i], p.onNotes[1][i])) done++;
+        }
+        return done;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public void shake(Mutable m){
+        m.board.shake();
+    }
+
+    @Benchmark
+    public int getAll(){
+        return board.getNotes(null, null, null, null);
+    }
+
+    @Benchmark
+    public int getColor(){
+        return board.getNotes(Inputs.COLORS[next() & 3], null, null, null);
+    }
+
+    @Benchmark
+    public int getContains(){
+        int i = next();
+        return board.getNotes(null, xs[i], ys[i], null);
+    }
+
+    @Benchmark
+    public int getRefersTo(){
+        return board.getNotes(null, null, null, terms[next()]);
+    }
+
+    @Benchmark
+    public int getCombined(){
+        int i = next();
+        return board.getNotes(Inputs.COLORS[i & 3], xs[i], ys[i], "a");
+    }
+
+    @Benchmark
+    public int getPins(){
+        return board.getPins();
+    }
+
+    @Benchmark
+    public int parse(){
+        return board.parse(lines[next()]);
+    }
+
+    // POST, PIN, UNPIN and GET lines through RequestProcessor, responses discarded
+    @Benchmark
+    public int handle(Mutable m){
+        return m.board.handle(lines[m.next()]);
+    }
+
+    @State(Scope.Group)
+    public static class Shared{
+        BoardTarget board;
+        int range;
+        long seed;
+
+        @Setup(Level.Iteration)
+        public void setUp(BoardBenchmark b){
+            board = b.fresh(++seed);
+            range = b.side - Inputs.NOTE;
+        }
+    }
+
+    @Benchmark
+    @Group("mix")
+    @GroupThreads(3)
+    public int mixRead(Shared s){
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        return s.board.getNotes(null, rnd.nextInt(s.range), rnd.nextInt(s.range), null);
+    }
+
+    @Benchmark
+    @Group("mix")
+    @GroupThreads(1)
+    public boolean mixWrite(Shared s){
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int x = rnd.nextInt(s.range), y = rnd.nextInt(s.range);
+        int kind = rnd.nextInt(3);
+        if(kind == 0) return s.board.post(x, y, Inputs.COLORS[x & 3], "mix");
+        if(kind == 1) return s.board.pin(x, y);
+        return s.board.unpin(x, y);
+    }
+}
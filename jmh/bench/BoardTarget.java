@@ -0,0 +1,38 @@
+package bench;
+
+import java.util.Random;
+
+// The Board and request path operations the benchmarks drive. JMH refuses benchmarks in
+// the default package and a named package cannot import from it, so JmhBoard implements
+// this next to Board and create() loads it by name.
+public interface BoardTarget{
+    // the same seed gives the same board: up to notes notes on random free spots, then
+    // pins pins each inside one of them
+    void populate(int side, int notes, int pins, int tiles, boolean columnar, long seed);
+
+    // false where the board answered with an error (a collision, nothing to pin)
+    boolean post(int x, int y, String color, String message);
+    boolean pin(int x, int y);
+    boolean unpin(int x, int y);
+    void shake();
+
+    // the response lengths, so the work is consumed
+    int getNotes(String color, Integer x, Integer y, String refersTo);
+    int getPins();
+
+    // tokenizing a request line as a connection does, without acting on it
+    int parse(byte[] line);
+    // the whole request path: tokenize, run against the board, write the response
+    int handle(byte[] line);
+
+    // n points each inside some note populate() posted
+    int[][] pointsOnNotes(Random rnd, int n);
+
+    static BoardTarget create(){
+        try{
+            return (BoardTarget) Class.forName("JmhBoard").getDeclaredConstructor().newInstance();
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException("JmhBoard is not on the classpath", e);
+        }
+    }
+}
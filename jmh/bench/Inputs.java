@@ -0,0 +1,44 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Random operands shared by the benchmarks and the board adapter, so a board and the
+// requests sent to it come from the same vocabulary.
+public final class Inputs{
+    public static final int NOTE = 10;
+    public static final String[] COLORS = {"red", "green", "blue", "yellow"};
+    public static final String[] WORDS = {"meeting", "at", "noon", "lost", "cat", "café", "room", "204", "call", "back"};
+
+    private Inputs(){}
+
+    public static int[] randoms(Random rnd, int n, int bound){
+        int[] r = new int[n];
+        for(int i = 0; i < n; i++) r[i] = rnd.nextInt(bound);
+        return r;
+    }
+
+    public static String message(Random rnd){
+        StringBuilder msg = new StringBuilder(WORDS[rnd.nextInt(WORDS.length)]);
+        int more = rnd.nextInt(4);
+        for(int i = 0; i < more; i++) msg.append(' ').append(WORDS[rnd.nextInt(WORDS.length)]);
+        return msg.toString();
+    }
+
+    // what clients mostly send: POST, PIN, UNPIN and point GETs
+    public static byte[][] requestLines(Random rnd, int n, int range){
+        byte[][] lines = new byte[n][];
+        for(int i = 0; i < n; i++){
+            int x = rnd.nextInt(range), y = rnd.nextInt(range);
+            String line;
+            switch(i & 3){
+                case 0: line = "POST " + x + " " + y + " " + COLORS[rnd.nextInt(COLORS.length)] + " " + message(rnd); break;
+                case 1: line = "PIN " + x + " " + y; break;
+                case 2: line = "UNPIN " + x + " " + y; break;
+                default: line = "GET contains=" + x + " " + y; break;
+            }
+            lines[i] = line.getBytes(StandardCharsets.UTF_8);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,129 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// PinTable against the Map<String, Integer> keyed by "x,y" it replaced: pins and unpins
+// over a fixed set of coordinates (every third visit to a pinned one unpins it), and the
+// sorted DATA PINS order built from everything a full pass of that script left pinned.
+//   java -jar target/benchmarks.jar PinTableBenchmark -p coordinates=1000,100000
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PinTableBenchmark{
+    private static final int SCRIPT = 1 << 20;
+
+    @Param("100000")
+    public int coordinates;
+
+    private int[] xs, ys, script;
+    private int next;
+
+    // changed by the pin/unpin cases, fresh each iteration
+    private Map<String, Integer> map;
+    private PinTarget table;
+
+    // left by one pass of the script, for the sorting cases
+    private Map<String, Integer> fullMap;
+    private PinTarget fullTable;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        Random rnd = new Random(42);
+        xs = Inputs.randoms(rnd, coordinates, 100000);
+        ys = Inputs.randoms(rnd, coordinates, 100000);
+        script = Inputs.randoms(rnd, SCRIPT, coordinates);
+
+        fullMap = new HashMap<>();
+        fullTable = PinTarget.create();
+        for(int i = 0; i < SCRIPT; i++){
+            mapStep(fullMap, script[i]);
+            tableStep(fullTable, script[i]);
+        }
+        if(fullTable.total() != fullMap.values().stream().mapToInt(Integer::intValue).sum()){
+            throw new IllegalStateException("map and table disagree");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reset(){
+        map = new HashMap<>();
+        table = PinTarget.create();
+        next = 0;
+    }
+
+    private int mapStep(Map<String, Integer> map, int c){
+        String k = xs[c] + "," + ys[c];
+        Integer count = map.get(k);
+        if(count != null && (c % 3) == 0){
+            if(count == 1) map.remove(k);
+            else map.put(k, count - 1);
+            return count - 1;
+        }
+        int n = count == null ? 1 : count + 1;
+        map.put(k, n);
+        return n;
+    }
+
+    private int tableStep(PinTarget table, int c){
+        int count = table.count(xs[c], ys[c]);
+        if(count != 0 && (c % 3) == 0){
+            table.remove(xs[c], ys[c]);
+            return count - 1;
+        }
+        table.add(xs[c], ys[c]);
+        return count + 1;
+    }
+
+    @Benchmark
+    public int mapPinUnpin(){
+        return mapStep(map, script[next++ & (SCRIPT - 1)]);
+    }
+
+    @Benchmark
+    public int tablePinUnpin(){
+        return tableStep(table, script[next++ & (SCRIPT - 1)]);
+    }
+
+    // what GET PINS did with the map: parse the keys back and sort boxed indexes
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Integer[] mapSorted(){
+        int[] mx = new int[fullMap.size()], my = new int[fullMap.size()];
+        int i = 0;
+        for(String k : fullMap.keySet()){
+            int comma = k.indexOf(',');
+            mx[i] = Integer.parseInt(k.substring(0, comma));
+            my[i] = Integer.parseInt(k.substring(comma + 1));
+            i++;
+        }
+        Integer[] order = new Integer[mx.length];
+        for(i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> mx[a] != mx[b] ? Integer.compare(mx[a], mx[b]) : Integer.compare(my[a], my[b]));
+        return order;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long[] tableSorted(){
+        return fullTable.sortedKeys();
+    }
+}
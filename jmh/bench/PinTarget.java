@@ -0,0 +1,19 @@
+package bench;
+
+// PinTable as the benchmarks see it; see BoardTarget for why it goes through JmhPinTable.
+public interface PinTarget{
+    int count(int x, int y);
+    void add(int x, int y);
+    boolean remove(int x, int y);
+    int total();
+    // every pinned coordinate, packed, in (x, y) order
+    long[] sortedKeys();
+
+    static PinTarget create(){
+        try{
+            return (PinTarget) Class.forName("JmhPinTable").getDeclaredConstructor().newInstance();
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException("JmhPinTable is not on the classpath", e);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+// Threads run POST, PIN, UNPIN, SHAKE, GET contains= and GET PINS against one banded
+// board, most of them on rows next to a band boundary so PINs and notes straddle two
+// bands. The events the board fires in its commit section give the order the mutations
+// took effect in; replaying them one by one on a single-band board has to:
+//   - reproduce every event, i.e. flip the same notes for each PIN / UNPIN,
+//   - match each thread's successful mutations, in the thread's own order, each one
+//     committed while its call was running,
+//   - explain every failure and every GET / GET PINS answer by the state after some
+//     prefix of that order that was committed while the call was running,
+//   - end with byte for byte the same GET and GET PINS as the concurrent board.
+public class BoardStressTest{
+    private static final int SIDE = 200;
+    private static final int NOTE = 10;
+    private static final int THREADS = 6;
+    private static final int OPS = 4000;
+    private static final Set<String> COLORS = new LinkedHashSet<>(List.of("red", "green", "blue"));
+    private static final String[] COLOR_LIST = COLORS.toArray(new String[0]);
+
+    private enum Kind{ POST, PIN, UNPIN, SHAKE, GET, GET_PINS }
+
+    // one call as a thread made it; before / after are the number of committed events
+    // when it started and when it returned
+    private static final class Call{
+        final Kind kind;
+        final int x, y;
+        final String color, message;
+        long before, after;
+        boolean ok;
+        ErrorCode code;
+        String response;
+
+        Call(Kind kind, int x, int y, String color, String message){
+            this.kind = kind;
+            this.x = x;
+            this.y = y;
+            this.color = color;
+            this.message = message;
+        }
+
+        BoardOp op(){
+            if(kind == Kind.POST) return BoardOp.post(x, y, color, message);
+            return kind == Kind.PIN ? BoardOp.pin(x, y) : BoardOp.unpin(x, y);
+        }
+
+        @Override
+        public String toString(){
+            return kind + " " + x + " " + y + " in [" + before + ", " + after + "]" + (code != null ? " failed " + code : "");
+        }
+    }
+
+    private static final class Event{
+        final String line;
+        final Thread thread;
+
+        Event(String line, Thread thread){
+            this.line = line;
+            this.thread = thread;
+        }
+    }
+
+    // every straddling op on the one boundary
+    @Test
+    public void objectsInTwoBands(){
+        run(2, false, 1);
+    }
+
+    @Test
+    public void columnsInEightBands(){
+        run(8, true, 2);
+    }
+
+    // bands of the minimum height, one note high
+    @Test
+    public void noteHighBands(){
+        run(SIDE / NOTE, false, 3);
+    }
+
+    private void run(int tiles, boolean columnar, long seed){
+        Board board = new Board(SIDE, SIDE, NOTE, NOTE, COLORS, columnar, tiles);
+        int bandHeight = (SIDE + tiles - 1) / tiles;
+
+        List<Event> events = new ArrayList<>();
+        AtomicInteger committed = new AtomicInteger();
+        // called in the commit section, so in commit order and one at a time
+        board.subscribe((kind, line) -> {
+            if(kind == BoardListener.Kind.SNAPSHOT) return;
+            events.add(new Event(line, Thread.currentThread()));
+            committed.incrementAndGet();
+        });
+
+        Thread[] workers = new Thread[THREADS];
+        List<List<Call>> calls = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> crashes = new ArrayList<>();
+        for(int t = 0; t < THREADS; t++){
+            List<Call> mine = new ArrayList<>();
+            calls.add(mine);
+            Random rnd = new Random(seed * 100 + t);
+            workers[t] = new Thread(() -> {
+                try{
+                    start.await();
+                    for(int i = 0; i < OPS; i++){
+                        Call c = randomCall(rnd, bandHeight);
+                        c.before = committed.get();
+                        call(board, c);
+                        c.after = committed.get();
+                        mine.add(c);
+                    }
+                }catch(Throwable e){
+                    synchronized(crashes){
+                        crashes.add(e);
+                    }
+                }
+            }, "stress-" + t);
+            workers[t].start();
+        }
+        start.countDown();
+        for(Thread w : workers){
+            try{
+                w.join();
+            }catch(InterruptedException e){
+                throw new AssertionError(e);
+            }
+        }
+        assertTrue(crashes.isEmpty(), () -> "worker crashed: " + crashes);
+
+        checkThreadOrder(workers, calls, events);
+        Board replay = replay(events, calls, columnar);
+
+        assertEquals(replay.getNotesResponse(null, null, null, null), board.getNotesResponse(null, null, null, null));
+        assertEquals(replay.getPinsResponse(), board.getPinsResponse());
+        for(String color : COLOR_LIST){
+            assertEquals(replay.getNotesResponse(color, null, null, null), board.getNotesResponse(color, null, null, null));
+        }
+    }
+
+    // mostly on the rows around a band boundary, in a narrow strip so notes pile up
+    private static Call randomCall(Random rnd, int bandHeight){
+        int x = rnd.nextInt(3 * NOTE);
+        int y;
+        if(rnd.nextInt(10) < 7){
+            int boundary = bandHeight * (1 + rnd.nextInt(Math.max(1, SIDE / bandHeight - 1)));
+            y = Math.max(0, boundary - NOTE + rnd.nextInt(2 * NOTE));
+        }else{
+            y = rnd.nextInt(SIDE - NOTE + 1);
+        }
+        int kind = rnd.nextInt(1000);
+        if(kind < 300) return new Call(Kind.POST, x, Math.min(y, SIDE - NOTE), COLOR_LIST[rnd.nextInt(COLOR_LIST.length)], "m" + rnd.nextInt(100));
+        if(kind < 550) return new Call(Kind.PIN, x, y, null, null);
+        if(kind < 800) return new Call(Kind.UNPIN, x, y, null, null);
+        if(kind < 950) return new Call(Kind.GET, x, y, null, null);
+        if(kind < 998) return new Call(Kind.GET_PINS, 0, 0, null, null);
+        return new Call(Kind.SHAKE, 0, 0, null, null);
+    }
+
+    private static void call(Board board, Call c){
+        try{
+            switch(c.kind){
+                case POST: board.post(c.x, c.y, c.color, c.message); break;
+                case PIN: board.pin(c.x, c.y); break;
+                case UNPIN: board.unpin(c.x, c.y); break;
+                case SHAKE: board.shake(); break;
+                case GET: c.response = board.getNotesResponse(null, c.x, c.y, null); break;
+                default: c.response = board.getPinsResponse(); break;
+            }
+            c.ok = true;
+        }catch(ProtocolException e){
+            c.code = e.getCode();
+        }
+    }
+
+    // each thread's successful mutations are the events it fired, in the same order, and
+    // each event is numbered within its call's window
+    private static void checkThreadOrder(Thread[] workers, List<List<Call>> calls, List<Event> events){
+        Map<Thread, List<Integer>> fired = new HashMap<>();
+        for(int i = 0; i < events.size(); i++){
+            fired.computeIfAbsent(events.get(i).thread, t -> new ArrayList<>()).add(i);
+        }
+        for(int t = 0; t < workers.length; t++){
+            List<Integer> mine = fired.getOrDefault(workers[t], List.of());
+            int next = 0;
+            for(Call c : calls.get(t)){
+                if(!c.ok || c.kind == Kind.GET || c.kind == Kind.GET_PINS) continue;
+                assertTrue(next < mine.size(), () -> "no event for " + c);
+                int index = mine.get(next++);
+                String line = events.get(index).line;
+                assertEquals(expectedPrefix(c), line.substring(0, Math.min(line.length(), expectedPrefix(c).length())), "event " + index);
+                assertTrue(c.before <= index && index < c.after, "event " + index + " outside " + c);
+            }
+            assertEquals(mine.size(), next, "thread " + t + " fired events it did not succeed with");
+        }
+    }
+
+    private static String expectedPrefix(Call c){
+        switch(c.kind){
+            case POST: return "EVENT POST " + c.x + " " + c.y + " " + c.color + " " + c.message.length() + " " + c.message;
+            case PIN: return "EVENT PIN " + c.x + " " + c.y + " ";
+            case UNPIN: return "EVENT UNPIN " + c.x + " " + c.y + " ";
+            default: return "EVENT SHAKE";
+        }
+    }
+
+    // applies the events in order to a single-band board, checking failures and reads
+    // against the state after each prefix as it goes
+    private static Board replay(List<Event> events, List<List<Call>> calls, boolean columnar){
+        Board replay = new Board(SIDE, SIDE, NOTE, NOTE, COLORS, columnar, 1);
+        List<String> replayed = new ArrayList<>();
+        replay.subscribe((kind, line) -> {
+            if(kind != BoardListener.Kind.SNAPSHOT) replayed.add(line);
+        });
+
+        // failures and reads, by the first prefix that may explain them
+        List<Call> pending = new ArrayList<>();
+        for(List<Call> mine : calls){
+            for(Call c : mine){
+                if(!c.ok || c.kind == Kind.GET || c.kind == Kind.GET_PINS) pending.add(c);
+            }
+        }
+        pending.sort((a, b) -> Long.compare(a.before, b.before));
+
+        List<Call> active = new ArrayList<>();
+        int p = 0;
+        for(int k = 0; k <= events.size(); k++){
+            while(p < pending.size() && pending.get(p).before <= k) active.add(pending.get(p++));
+            String pins = null;
+            for(int i = active.size() - 1; i >= 0; i--){
+                Call c = active.get(i);
+                boolean explained;
+                if(c.kind == Kind.GET_PINS){
+                    if(pins == null) pins = replay.getPinsResponse();
+                    explained = pins.equals(c.response);
+                }else{
+                    explained = explains(replay, c);
+                }
+                if(explained) active.remove(i);
+                else if(c.after <= k) fail("no state in its window explains " + c + (c.response != null ? ": " + c.response : ""));
+            }
+            if(k == events.size()) break;
+
+            String line = events.get(k).line;
+            try{
+                apply(replay, line);
+            }catch(ProtocolException e){
+                fail("event " + k + " does not replay: " + line + ": " + e.getCode());
+            }
+            assertEquals(normalized(line), normalized(replayed.get(replayed.size() - 1)), "event " + k);
+        }
+        assertTrue(active.isEmpty() && p == pending.size(), () -> "unexplained: " + active);
+        return replay;
+    }
+
+    // whether c's answer is what the replay board gives now
+    private static boolean explains(Board replay, Call c){
+        if(c.kind == Kind.GET) return replay.getNotesResponse(null, c.x, c.y, null).equals(c.response);
+        // the op followed by one that always fails: an atomic batch then leaves no trace
+        // and tells what the op alone would do
+        ProtocolException[] result = replay.applyBatch(List.of(c.op(), BoardOp.post(0, 0, "none", "")), true);
+        return result[0] != null && result[0].getCode() == c.code;
+    }
+
+    private static void apply(Board board, String line) throws ProtocolException{
+        String[] t = line.split(" ", 7);
+        switch(t[1]){
+            case "POST": board.post(Integer.parseInt(t[2]), Integer.parseInt(t[3]), t[4], t.length > 6 ? t[6] : ""); break;
+            case "PIN": board.pin(Integer.parseInt(t[2]), Integer.parseInt(t[3])); break;
+            case "UNPIN": board.unpin(Integer.parseInt(t[2]), Integer.parseInt(t[3])); break;
+            case "SHAKE": board.shake(); break;
+            default: throw new IllegalStateException("unexpected event " + line);
+        }
+    }
+
+    // the notes a PIN / UNPIN event lists come in band order, so compare them as a set
+    private static String normalized(String line){
+        if(!line.startsWith("EVENT PIN ") && !line.startsWith("EVENT UNPIN ")) return line;
+        String[] t = line.split(" ");
+        int k = Integer.parseInt(t[4]);
+        String[] notes = new String[k];
+        for(int i = 0; i < k; i++) notes[i] = t[5 + 2 * i] + " " + t[6 + 2 * i];
+        Arrays.sort(notes);
+        return String.join(" ", Arrays.copyOfRange(t, 0, 5)) + " " + String.join(" ", notes);
+    }
+}
@@ -0,0 +1,313 @@
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+// RequestProcessor as it was before RequestTokenizer: trim, split("\\s+"), toUpperCase and
+// substring on every line. ParserEquivalenceTest holds the tokenizer to its answers.
+public class LegacyRequestProcessor{
+    private final Board board;
+
+    // where SUBSCRIBE events go; called from whichever thread mutates the board,
+    // so the engine's implementation must be thread-safe and must not block
+    private final ResponseWriter pushes;
+    private BoardListener subscription;
+
+    // an open BATCH: the item lines collected so far and how many are still expected
+    private static final int MAX_BATCH = 10000;
+    private List<String> batchLines;
+    private int batchRemaining;
+    private boolean batchAtomic;
+
+    public LegacyRequestProcessor(Board board, ResponseWriter pushes){
+        this.board = board;
+        this.pushes = pushes;
+    }
+
+    // must be called once the connection is gone
+    public void close(){
+        if(subscription != null){
+            board.unsubscribe(subscription);
+            subscription = null;
+        }
+    }
+
+    // handles one request line; returns false once the client has asked to disconnect
+    public boolean handle(String line, ResponseWriter out){
+        if(batchLines != null){
+            batchLines.add(line);
+            if(--batchRemaining == 0) runBatch(out);
+            return true;
+        }
+
+        line = line.trim();
+        if(line.isEmpty()){
+            out.println("ERROR INVALID_FORMAT Empty request");
+            return true;
+        }
+
+        String[] parts = line.split("\\s+");
+        String command = parts[0].toUpperCase();
+
+        if(command.equals("DISCONNECT")){
+            out.println("OK");
+            return false;
+        }
+        else if(command.equals("CLEAR")){
+            board.clear();
+            out.println("OK");
+        }
+        else if(command.equals("SHAKE")){
+            board.shake();
+            out.println("OK");
+        }
+        else if(command.equals("POST") || command.equals("PIN") || command.equals("UNPIN")){
+            try{
+                board.apply(parseOp(line, parts, command));
+                out.println(Protocol.ok());
+            }
+            catch(ProtocolException e){
+                out.println(Protocol.error(e.getCode(), e.getMessage()));
+            }
+        }
+
+        // BATCH n [ATOMIC], followed by n POST / PIN / UNPIN lines; answered with one
+        // OK / ERROR line per item once the last item has arrived
+        else if(command.equals("BATCH")){
+            int n = -1;
+            if(parts.length == 2 || (parts.length == 3 && parts[2].equalsIgnoreCase("ATOMIC"))){
+                try{
+                    n = Integer.parseInt(parts[1]);
+                }
+                catch(NumberFormatException ignored){}
+            }
+            if(n < 1 || n > MAX_BATCH){
+                out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "BATCH requires n (1-" + MAX_BATCH + ") [ATOMIC]"));
+                return true;
+            }
+            batchLines = new ArrayList<>(n);
+            batchRemaining = n;
+            batchAtomic = parts.length == 3;
+        }
+
+        else if(command.equals("GET")){
+
+            // the unfiltered forms are what polling clients send; both come from the cache
+            if(parts.length == 1){
+                out.writeEncoded(board.encodedNotesResponse());
+                return true;
+            }
+            if(parts.length == 2 && parts[1].equalsIgnoreCase("PINS")){
+                out.writeEncoded(board.encodedPinsResponse());
+                return true;
+            }
+
+            // GET since=<v> / GET PINS since=<v>: only what changed after board version v
+            if(parts.length == 3 && parts[1].equalsIgnoreCase("PINS") && parts[2].startsWith("since=")){
+                Long since = parseSince(parts[2], out);
+                if(since != null) out.println(board.getPinsDelta(since));
+                return true;
+            }
+            if(parts.length == 2 && parts[1].startsWith("since=")){
+                Long since = parseSince(parts[1], out);
+                if(since != null) out.println(board.getNotesDelta(since));
+                return true;
+            }
+
+            String colorFilter = null;
+            Integer containsX = null;
+            Integer containsY = null;
+            String refersTo = null;
+
+            try{
+                for(int i = 1; i < parts.length; i++){
+                    String tok = parts[i];
+
+                    if(tok.startsWith("color=")){
+                        colorFilter = tok.substring(6);
+                        if(colorFilter.isEmpty()){
+                            out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "color filter missing value"));
+                            break;
+                        }
+                    }
+                    else if(tok.startsWith("contains=")){
+                        String xStr = tok.substring(9);
+                        if(xStr.isEmpty()){
+                            out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "contains filter missing x"));
+                            break;
+                        }
+                        if(i + 1 >=parts.length){
+                            out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "contains filter mssing y"));
+                            break;
+                        }
+                        containsX = Integer.parseInt(xStr);
+                        containsY = Integer.parseInt(parts[i + 1]);
+                        i++;
+                    }
+                    else if(tok.startsWith("refersTo=")){
+                        refersTo = tok.substring(9);
+                        if(refersTo.isEmpty()){
+                            out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "refersTo filter missing value"));
+                            break;
+                        }
+                    }
+                    else if(tok.startsWith("since=")){
+                        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "since cannot be combined with other filters"));
+                        return true;
+                    }
+                    else{
+                        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "Unknown GET filter"));
+                        break;
+                    }
+                }
+                out.println(board.getNotesResponse(colorFilter, containsX, containsY, refersTo));
+            }
+            catch(NumberFormatException e){
+                out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "contains requires integer x and y"));
+            }
+        }
+
+        // SUBSCRIBE [POST] [PIN] [UNPIN] [SHAKE] [CLEAR]
+        // replies with DATA NOTES and DATA PINS, then pushes EVENT lines as the board changes
+        else if(command.equals("SUBSCRIBE")){
+            if(subscription != null){
+                out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "Already subscribed"));
+                return true;
+            }
+
+            EnumSet<BoardListener.Kind> kinds = EnumSet.noneOf(BoardListener.Kind.class);
+            for(int i = 1; i < parts.length; i++){
+                BoardListener.Kind kind;
+                try{
+                    kind = BoardListener.Kind.valueOf(parts[i].toUpperCase());
+                }
+                catch(IllegalArgumentException e){
+                    kind = BoardListener.Kind.SNAPSHOT;
+                }
+                if(kind == BoardListener.Kind.SNAPSHOT){
+                    out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "Unknown SUBSCRIBE event"));
+                    return true;
+                }
+                kinds.add(kind);
+            }
+            if(kinds.isEmpty()) kinds = EnumSet.complementOf(EnumSet.of(BoardListener.Kind.SNAPSHOT));
+
+            EnumSet<BoardListener.Kind> wanted = kinds;
+            subscription = (kind, event) -> {
+                if(kind == BoardListener.Kind.SNAPSHOT || wanted.contains(kind)) pushes.println(event);
+            };
+            board.subscribe(subscription);
+        }
+
+        else if(command.equals("UNSUBSCRIBE")){
+            close();
+            out.println(Protocol.ok());
+        }
+
+        else{
+            out.println("ERROR INVALID_COMMAND Unknown command");
+        }
+
+        return true;
+    }
+
+    private BoardOp parseOp(String line, String[] parts, String command) throws ProtocolException{
+        try{
+            if(command.equals("POST")){
+                if(parts.length < 5){
+                    throw new ProtocolException(ErrorCode.INVALID_FORMAT, "POST required x y color message");
+                }
+                int x = Integer.parseInt(parts[1]);
+                int y = Integer.parseInt(parts[2]);
+                String color = parts[3];
+
+                int index = nthIndexOf(line, ' ', 4);
+                if(index == -1 || index + 1 >= line.length()){
+                    throw new ProtocolException(ErrorCode.INVALID_FORMAT, "POST missing message");
+                }
+                return BoardOp.post(x, y, color, line.substring(index + 1));
+            }
+
+            if(parts.length != 3){
+                throw new ProtocolException(ErrorCode.INVALID_FORMAT, command + " requires x y");
+            }
+            int x = Integer.parseInt(parts[1]);
+            int y = Integer.parseInt(parts[2]);
+            return command.equals("PIN") ? BoardOp.pin(x, y) : BoardOp.unpin(x, y);
+        }
+        catch(NumberFormatException e){
+            throw new ProtocolException(ErrorCode.INVALID_FORMAT, "x and y must be integers");
+        }
+    }
+
+    private void runBatch(ResponseWriter out){
+        List<String> lines = batchLines;
+        boolean atomic = batchAtomic;
+        batchLines = null;
+
+        // parse everything first; an atomic batch with a bad line never touches the board
+        ProtocolException[] errors = new ProtocolException[lines.size()];
+        List<BoardOp> ops = new ArrayList<>(lines.size());
+        int[] itemOf = new int[lines.size()];
+        int firstBad = -1;
+        for(int i = 0; i < lines.size(); i++){
+            String line = lines.get(i).trim();
+            try{
+                if(line.isEmpty()) throw new ProtocolException(ErrorCode.INVALID_FORMAT, "Empty request");
+                String[] parts = line.split("\\s+");
+                String command = parts[0].toUpperCase();
+                if(!command.equals("POST") && !command.equals("PIN") && !command.equals("UNPIN")){
+                    throw new ProtocolException(ErrorCode.INVALID_COMMAND, "Only POST, PIN and UNPIN are allowed in BATCH");
+                }
+                itemOf[ops.size()] = i;
+                ops.add(parseOp(line, parts, command));
+            }
+            catch(ProtocolException e){
+                errors[i] = e;
+                if(firstBad == -1) firstBad = i;
+            }
+        }
+
+        if(atomic && firstBad != -1){
+            for(int i = 0; i < errors.length; i++){
+                if(i == firstBad) out.println(Protocol.error(errors[i].getCode(), errors[i].getMessage()));
+                else out.println(Protocol.error(ErrorCode.BATCH_ABORTED, "Not executed"));
+            }
+            return;
+        }
+
+        ProtocolException[] results = board.applyBatch(ops, atomic);
+        int failed = -1;
+        for(int j = 0; j < results.length; j++){
+            if(results[j] == null) continue;
+            errors[itemOf[j]] = results[j];
+            if(failed == -1) failed = itemOf[j];
+        }
+
+        for(int i = 0; i < errors.length; i++){
+            if(errors[i] != null) out.println(Protocol.error(errors[i].getCode(), errors[i].getMessage()));
+            else if(!atomic || failed == -1) out.println(Protocol.ok());
+            else out.println(Protocol.error(ErrorCode.BATCH_ABORTED, i < failed ? "Rolled back" : "Not executed"));
+        }
+    }
+
+    private Long parseSince(String tok, ResponseWriter out){
+        try{
+            long since = Long.parseLong(tok.substring(6));
+            if(since >= 0) return since;
+        }
+        catch(NumberFormatException ignored){}
+        out.println(Protocol.error(ErrorCode.INVALID_FORMAT, "since requires a non-negative integer version"));
+        return null;
+    }
+
+    private int nthIndexOf(String str, char ch, int n){
+        int count = 0;
+        for(int i = 0; i < str.length(); i++){
+            if(str.charAt(i) == ch){
+                count++;
+                if(count == n) return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,288 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+// RequestProcessor's parsing held to what clients got before RequestTokenizer:
+//   - parser-transcript.txt, request lines with the responses the string-splitting
+//     processor gave them (the protocol scripts plus parsing corner cases);
+//   - random lines from the same vocabulary, sent to RequestProcessor and to
+//     LegacyRequestProcessor on boards of their own and compared request by request.
+// Responses are compared as the bytes a connection sends, so the ErrorCode and message of
+// every ERROR line are checked too, and the STATS error counters have to agree with them.
+// Requests go in the way the engines pass them, as bytes in Protocol.CHARSET, and as a
+// String like LoadGen and the tests do.
+public class ParserEquivalenceTest{
+    private static final Set<String> COLORS = new LinkedHashSet<>(List.of("red", "green", "blue"));
+
+    // what one processor sent for one request
+    private static final class Capture implements ResponseWriter{
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Map<ErrorCode, Integer> errors = new EnumMap<>(ErrorCode.class);
+
+        @Override
+        public void println(String line){
+            writeEncoded(Protocol.encodeLine(line));
+        }
+
+        @Override
+        public void writeEncoded(byte[] line){
+            bytes.writeBytes(line);
+        }
+
+        byte[] take(){
+            byte[] sent = bytes.toByteArray();
+            bytes.reset();
+            for(String line : new String(sent, Protocol.CHARSET).split(System.lineSeparator())){
+                if(!line.startsWith("ERROR ")) continue;
+                ErrorCode code = ErrorCode.valueOf(line.split(" ")[1]);
+                errors.merge(code, 1, Integer::sum);
+            }
+            return sent;
+        }
+    }
+
+    // one connection of the current RequestProcessor, taking requests as bytes or as text
+    private static final class Current{
+        final ServerStats stats = new ServerStats(RequestProcessor.statNames());
+        final Capture out = new Capture(), pushed = new Capture();
+        final RequestProcessor processor;
+        final boolean asBytes;
+
+        Current(Board board, boolean asBytes){
+            this.processor = new RequestProcessor(board, stats, pushed);
+            this.asBytes = asBytes;
+        }
+
+        boolean handle(String line){
+            if(!asBytes) return processor.handle(line, out);
+            byte[] bytes = line.getBytes(Protocol.CHARSET);
+            return processor.handle(bytes, bytes.length, out);
+        }
+
+        // every ERROR line sent was counted under its code, and its request timed under it
+        void checkErrorCounts(){
+            String statsLine = stats.statsLine(new Board(10, 10, 1, 1, COLORS));
+            for(ErrorCode code : ErrorCode.values()){
+                int sent = out.errors.getOrDefault(code, 0);
+                String counted = "error." + code.name() + "=" + sent;
+                String timed = " error_latency." + code.name() + "=";
+                if(sent == 0){
+                    assertEquals(-1, statsLine.indexOf(" error." + code.name() + "="), statsLine);
+                    assertEquals(-1, statsLine.indexOf(timed), statsLine);
+                }else{
+                    assertEquals(true, (statsLine + " ").contains(" " + counted + " "), counted + " in " + statsLine);
+                    assertEquals(true, statsLine.contains(timed), timed + " in " + statsLine);
+                }
+            }
+        }
+    }
+
+    private static Board board(){
+        return new Board(200, 100, 20, 10, COLORS);
+    }
+
+    @Test
+    public void recordedTranscript() throws IOException{
+        List<String> lines;
+        try(InputStream in = ParserEquivalenceTest.class.getResourceAsStream("parser-transcript.txt")){
+            assertNotNull(in, "parser-transcript.txt");
+            lines = List.of(new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n"));
+        }
+
+        Current bytes = null, text = null;
+        String request = null;
+        boolean keepOpen = true;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream(), expectedPushes = new ByteArrayOutputStream();
+        for(int i = 0; i <= lines.size(); i++){
+            String line = i < lines.size() ? lines.get(i) : "## end";
+            if(line.startsWith("> ") || line.startsWith("## ")){
+                if(request != null){
+                    for(Current c : List.of(bytes, text)){
+                        String where = "line " + i + ", " + (c.asBytes ? "bytes" : "text") + ": " + request;
+                        assertEquals(keepOpen, c.handle(request), where);
+                        byte[] want = expected.toByteArray();
+                        assertArrayEquals(want, c.out.take(), () -> where + "\nexpected " + new String(want, Protocol.CHARSET));
+                        assertArrayEquals(expectedPushes.toByteArray(), c.pushed.take(), where);
+                    }
+                    request = null;
+                    expected.reset();
+                    expectedPushes.reset();
+                }
+                if(line.startsWith("## ")){
+                    if(bytes != null){
+                        bytes.checkErrorCounts();
+                        text.checkErrorCounts();
+                    }
+                    bytes = new Current(board(), true);
+                    text = new Current(board(), false);
+                }else{
+                    request = line.substring(2);
+                    keepOpen = !request.trim().equalsIgnoreCase("DISCONNECT");
+                }
+            }else if(line.startsWith("~ ")){
+                expectedPushes.writeBytes(Protocol.encodeLine(line.substring(2)));
+            }else if(!line.startsWith("# ")){
+                expected.writeBytes(Protocol.encodeLine(line));
+            }
+        }
+    }
+
+    @Test
+    public void randomLinesMatchLegacy(){
+        for(long seed = 1; seed <= 3; seed++) compareWithLegacy(new Random(seed), 20000);
+    }
+
+    private void compareWithLegacy(Random rnd, int requests){
+        Board legacyBoard = board();
+        Board bytesBoard = board();
+        Board textBoard = board();
+        Capture legacyOut = new Capture(), legacyPushed = new Capture();
+        LegacyRequestProcessor legacy = new LegacyRequestProcessor(legacyBoard, legacyPushed);
+        Current bytes = new Current(bytesBoard, true);
+        Current text = new Current(textBoard, false);
+
+        for(int i = 0; i < requests; i++){
+            String line = randomLine(rnd);
+            boolean keepOpen = legacy.handle(line, legacyOut);
+            byte[] sent = legacyOut.take(), pushed = legacyPushed.take();
+            for(Current c : List.of(bytes, text)){
+                String where = "request " + i + ", " + (c.asBytes ? "bytes" : "text") + ": " + printable(line);
+                assertEquals(keepOpen, c.handle(line), where);
+                assertArrayEquals(sent, c.out.take(), () -> where + "\nexpected " + new String(sent, Protocol.CHARSET));
+                assertArrayEquals(pushed, c.pushed.take(), where);
+            }
+            if(!keepOpen){
+                // DISCONNECT: the next requests come on new connections
+                legacy.close();
+                bytes.checkErrorCounts();
+                text.checkErrorCounts();
+                bytes.processor.close();
+                text.processor.close();
+                legacyOut.errors.clear();
+                legacy = new LegacyRequestProcessor(legacyBoard, legacyPushed);
+                bytes = new Current(bytesBoard, true);
+                text = new Current(textBoard, false);
+            }
+        }
+        bytes.checkErrorCounts();
+        text.checkErrorCounts();
+        assertEquals(legacyOut.errors, bytes.out.errors);
+        assertEquals(legacyBoard.getNotesResponse(null, null, null, null), bytesBoard.getNotesResponse(null, null, null, null));
+        assertEquals(legacyBoard.getPinsResponse(), textBoard.getPinsResponse());
+    }
+
+    private static final String[] SEPARATORS = {" ", " ", " ", " ", "  ", "\t", " \t ", "\u000B", "\f", "\u0001", " "};
+    private static final String[] EDGES = {"", " ", "\t", "  \t", "\u0001"};
+    private static final String[] COMMANDS = {"POST", "post", "Post", "PIN", "pin", "UNPIN", "Unpin", "GET", "get",
+            "BATCH", "SUBSCRIBE", "UNSUBSCRIBE", "SHAKE", "CLEAR", "DISCONNECT", "FOO", "POSTS", "PI", "poſt", "pın"};
+    private static final String[] NUMBERS = {"0", "5", "15", "42", "99", "180", "199", "-1", "+7", "-0", "007", "1.5", "x", "",
+            "2147483647", "2147483648", "-2147483648", "99999999999", "٣", "1e2"};
+    private static final String[] COLOR_WORDS = {"red", "green", "blue", "red", "blue", "RED", "Green", "purple", ""};
+    private static final String[] WORDS = {"hello", "world", "a", "café", "☕", "room", "204", "lost cat", "", "x=y", "PINS"};
+    private static final String[] FILTERS = {"color=", "contains=", "refersTo=", "since=", "PINS", "pins", "bogus=1", "color", "=red"};
+    private static final String[] KINDS = {"POST", "pin", "UNPIN", "SHAKE", "clear", "SNAPSHOT", "FOO"};
+
+    // a request from the vocabulary both processors know: no paging, PROTOCOL, COMPRESS or STATS
+    private static String randomLine(Random rnd){
+        List<String> t = new ArrayList<>();
+        int kind = rnd.nextInt(100);
+        if(kind < 24){
+            t.add(pick(rnd, COMMANDS, 0, 3));
+            t.add(number(rnd));
+            t.add(number(rnd));
+            t.add(pick(rnd, COLOR_WORDS));
+            int words = rnd.nextInt(4);
+            for(int i = 0; i < words; i++) t.add(pick(rnd, WORDS));
+        }else if(kind < 40){
+            t.add(pick(rnd, COMMANDS, 3, 7));
+            t.add(number(rnd));
+            t.add(number(rnd));
+        }else if(kind < 66){
+            t.add(pick(rnd, COMMANDS, 7, 9));
+            int filters = rnd.nextInt(4);
+            for(int i = 0; i < filters; i++){
+                String f = pick(rnd, FILTERS);
+                if(f.equals("color=")) t.add(f + pick(rnd, COLOR_WORDS));
+                else if(f.equals("refersTo=")) t.add(f + pick(rnd, WORDS));
+                else if(f.equals("since=")) t.add(f + number(rnd));
+                else if(f.equals("contains=")){
+                    t.add(f + number(rnd));
+                    if(rnd.nextInt(8) != 0) t.add(number(rnd));
+                }
+                else t.add(f);
+            }
+        }else if(kind < 71){
+            t.add("BATCH");
+            t.add(rnd.nextInt(6) == 0 ? number(rnd) : String.valueOf(1 + rnd.nextInt(4)));
+            if(rnd.nextBoolean()) t.add(rnd.nextInt(4) == 0 ? "foo" : rnd.nextBoolean() ? "ATOMIC" : "atomic");
+        }else if(kind < 75){
+            t.add(rnd.nextInt(3) == 0 ? "UNSUBSCRIBE" : "subscribe");
+            int kinds = rnd.nextInt(3);
+            for(int i = 0; i < kinds; i++) t.add(pick(rnd, KINDS));
+        }else if(kind < 77){
+            t.add(rnd.nextBoolean() ? "SHAKE" : "shake");
+        }else if(kind < 78){
+            t.add(rnd.nextInt(4) == 0 ? "CLEAR" : "GET");
+        }else if(kind < 79){
+            t.add(rnd.nextBoolean() ? "DISCONNECT" : "disconnect");
+        }else if(kind < 85){
+            t.add(pick(rnd, COMMANDS, 15, COMMANDS.length));
+            if(rnd.nextBoolean()) t.add(number(rnd));
+        }else if(kind < 88){
+            // nothing but whitespace
+        }else{
+            // a known command with the arguments of another
+            t.add(pick(rnd, COMMANDS));
+            int args = rnd.nextInt(6);
+            for(int i = 0; i < args; i++) t.add(rnd.nextBoolean() ? number(rnd) : pick(rnd, WORDS));
+        }
+        // one too few or one too many now and then
+        if(t.size() > 1 && rnd.nextInt(12) == 0) t.remove(t.size() - 1);
+        else if(rnd.nextInt(12) == 0) t.add(number(rnd));
+
+        StringBuilder line = new StringBuilder();
+        if(rnd.nextInt(6) == 0) line.append(pick(rnd, EDGES));
+        for(int i = 0; i < t.size(); i++){
+            if(i > 0) line.append(rnd.nextInt(5) == 0 ? pick(rnd, SEPARATORS) : " ");
+            line.append(t.get(i));
+        }
+        if(rnd.nextInt(6) == 0) line.append(pick(rnd, EDGES));
+        return line.toString();
+    }
+
+    // mostly coordinates that hit the board and its notes
+    private static String number(Random rnd){
+        if(rnd.nextInt(4) == 0) return pick(rnd, NUMBERS);
+        return String.valueOf(rnd.nextInt(210));
+    }
+
+    private static String pick(Random rnd, String[] values){
+        return values[rnd.nextInt(values.length)];
+    }
+
+    private static String pick(Random rnd, String[] values, int from, int to){
+        return values[from + rnd.nextInt(to - from)];
+    }
+
+    private static String printable(String line){
+        StringBuilder sb = new StringBuilder();
+        for(char c : line.toCharArray()){
+            if(c < ' ' || c > '~') sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+}